@@ -0,0 +1,323 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous log sink for the server UI.
+ *
+ * Callers put a level, a format string and its arguments into a bounded ring
+ * buffer and return at once; formatting and all I/O happen on one background
+ * thread.  When the buffer is full the message is dropped and counted instead
+ * of blocking the caller.
+ *
+ * The background thread drains messages in batches, appends each batch to a
+ * rolling log file, and hands it to the attached text area.  At most one
+ * Swing event is pending at a time, and the text area is trimmed to the
+ * newest scrollbackLines lines.
+ *
+ * Kept in sync with the nested AsyncLogSink in rpc-docker/server/PasswordManagerServer.java:
+ * apart from visibility the two classes are identical, and a fix to one belongs in both.
+ */
+public class AsyncLogSink {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR;
+
+        // Padded so file columns line up
+        final String label = String.format("%-5s ", name());
+    }
+
+    private static final int MAX_BATCH = 512;
+    private static final long POLL_MS = 250;
+    private static final DateTimeFormatter STAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String format;
+        final Object[] args;
+        final Throwable thrown;
+
+        Entry(long time, Level level, String format, Object[] args, Throwable thrown) {
+            this.time = time;
+            this.level = level;
+            this.format = format;
+            this.args = args;
+            this.thrown = thrown;
+        }
+    }
+
+    private final BlockingQueue<Entry> ring;
+    private final int scrollbackLines;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile Level threshold = Level.INFO;
+    private volatile JTextArea area;
+    private volatile boolean closed;
+
+    // Only touched by the writer thread after construction; null when file logging is off
+    private RollingFile file;
+
+    // Lines waiting for the EDT, oldest first (guarded by itself)
+    private final ArrayDeque<String> pendingUi = new ArrayDeque<>();
+    private boolean uiFlushScheduled;
+
+    /**
+     * @param capacity        ring buffer size, in messages
+     * @param scrollbackLines lines kept in the attached text area
+     * @param logFile         file to append to, or null for none
+     * @param maxFileBytes    roll the file once it reaches this size (0 = never)
+     * @param keepFiles       rolled files to keep as logFile.1 .. logFile.N
+     */
+    public AsyncLogSink(int capacity, int scrollbackLines, Path logFile, long maxFileBytes, int keepFiles) {
+        this.ring = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.scrollbackLines = Math.max(1, scrollbackLines);
+        if (logFile != null) {
+            try {
+                file = new RollingFile(logFile, maxFileBytes, keepFiles);
+            } catch (IOException e) {
+                System.err.println("[LOG] Cannot open " + logFile + ": " + e.getMessage());
+            }
+        }
+        writer = new Thread(this::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /** Show future messages in this text area (called once the UI exists). */
+    public void attach(JTextArea textArea) {
+        area = textArea;
+    }
+
+    public void setThreshold(Level level) {
+        threshold = level;
+    }
+
+    public Level getThreshold() {
+        return threshold;
+    }
+
+    /** True if a message at this level would be kept; use it to skip building costly arguments. */
+    public boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    /**
+     * Queue a message.  The format is a String.format pattern, applied on the
+     * writer thread, so arguments should not be mutated after the call.
+     */
+    public void log(Level level, String format, Object... args) {
+        log(level, null, format, args);
+    }
+
+    /** Queue a message followed by the throwable's stack trace (thrown may be null). */
+    public void log(Level level, Throwable thrown, String format, Object... args) {
+        if (!isEnabled(level) || closed) return;
+        if (!ring.offer(new Entry(System.currentTimeMillis(), level, format, args, thrown))) {
+            dropped.increment();
+        }
+    }
+
+    public void debug(String format, Object... args) { log(Level.DEBUG, format, args); }
+    public void info(String format, Object... args)  { log(Level.INFO, format, args); }
+    public void warn(String format, Object... args)  { log(Level.WARN, format, args); }
+    public void error(String format, Object... args) { log(Level.ERROR, format, args); }
+    public void error(Throwable thrown, String format, Object... args) { log(Level.ERROR, thrown, format, args); }
+
+    public String stats() {
+        return written.sum() + " written, " + dropped.sum() + " dropped, "
+                + ring.size() + " queued, level " + threshold
+                + (file == null ? ", no file" : ", file " + file.path);
+    }
+
+    /** Write out whatever is queued and stop the writer thread. */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        List<String> lines = new ArrayList<>(MAX_BATCH + 1);
+        StringBuilder fileText = new StringBuilder();
+        long reportedDrops = 0;
+        while (true) {
+            try {
+                Entry first = ring.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed) break;
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                break;
+            }
+            ring.drainTo(batch, MAX_BATCH - 1);
+
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                lines.add("[LOG] " + (drops - reportedDrops) + " messages dropped (buffer full)");
+                fileText.append(STAMP.format(Instant.now())).append(" WARN  ").append(lines.get(0)).append('\n');
+                reportedDrops = drops;
+            }
+            for (Entry e : batch) {
+                String msg = format(e);
+                lines.add(msg);
+                fileText.append(STAMP.format(Instant.ofEpochMilli(e.time))).append(' ')
+                        .append(e.level.label).append(msg).append('\n');
+            }
+            writeFile(fileText);
+            publish(lines);
+            written.add(batch.size());
+            batch.clear();
+            lines.clear();
+            fileText.setLength(0);
+        }
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private static String format(Entry e) {
+        String msg = message(e);
+        if (e.thrown == null) return msg;
+        StringWriter trace = new StringWriter();
+        e.thrown.printStackTrace(new PrintWriter(trace));
+        return msg + '\n' + trace.toString().stripTrailing();
+    }
+
+    private static String message(Entry e) {
+        if (e.args == null || e.args.length == 0) return e.format;
+        try {
+            return String.format(e.format, e.args);
+        } catch (IllegalFormatException ex) {
+            return e.format + " " + Arrays.toString(e.args);
+        }
+    }
+
+    private void writeFile(CharSequence text) {
+        if (file == null) return;
+        try {
+            file.write(text);
+        } catch (IOException e) {
+            System.err.println("[LOG] Writing " + file.path + " failed, file logging disabled: " + e.getMessage());
+            file.close();
+            file = null;
+        }
+    }
+
+    /** Queue lines for the text area, scheduling a flush only if none is pending. */
+    private void publish(List<String> lines) {
+        if (area == null) return;
+        boolean schedule;
+        synchronized (pendingUi) {
+            pendingUi.addAll(lines);
+            while (pendingUi.size() > scrollbackLines) {
+                pendingUi.removeFirst();
+            }
+            schedule = !uiFlushScheduled;
+            uiFlushScheduled = true;
+        }
+        if (schedule) {
+            SwingUtilities.invokeLater(this::flushToArea);
+        }
+    }
+
+    /** Runs on the EDT: append everything pending in one go, then trim old lines. */
+    private void flushToArea() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (pendingUi) {
+            for (String line : pendingUi) {
+                sb.append(line).append('\n');
+            }
+            pendingUi.clear();
+            uiFlushScheduled = false;
+        }
+        JTextArea target = area;
+        target.append(sb.toString());
+        // The text ends with '\n', so the last "line" is always empty
+        int excess = target.getLineCount() - 1 - scrollbackLines;
+        if (excess > 0) {
+            try {
+                target.replaceRange(null, 0, target.getLineEndOffset(excess - 1));
+            } catch (BadLocationException ignored) {
+                // offsets come from the same document on the same thread
+            }
+        }
+        target.setCaretPosition(target.getDocument().getLength());
+    }
+
+    /** Appends to a file, renaming it to file.1 (and older ones up to file.N) once it is full. */
+    private static final class RollingFile {
+        final Path path;
+        private final long maxBytes;
+        private final int keep;
+        private OutputStream out;
+        private long size;
+
+        RollingFile(Path path, long maxBytes, int keep) throws IOException {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.keep = Math.max(0, keep);
+            open(StandardOpenOption.APPEND);
+        }
+
+        private void open(StandardOpenOption mode) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode), 64 * 1024);
+            size = Files.size(path);
+        }
+
+        void write(CharSequence text) throws IOException {
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            if (maxBytes > 0 && size > 0 && size + bytes.length > maxBytes) {
+                roll();
+            }
+            out.write(bytes);
+            out.flush();
+            size += bytes.length;
+        }
+
+        private void roll() throws IOException {
+            out.close();
+            if (keep == 0) {
+                open(StandardOpenOption.TRUNCATE_EXISTING);
+                return;
+            }
+            for (int i = keep - 1; i >= 1; i--) {
+                Path older = Paths.get(path + "." + i);
+                if (Files.exists(older)) {
+                    Files.move(older, Paths.get(path + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, Paths.get(path + "." + 1), StandardCopyOption.REPLACE_EXISTING);
+            open(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // nothing left to report to
+            }
+        }
+    }
+}
@@ -2,8 +2,9 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
-import java.util.List;
+import java.util.Map;
 
 /**
  * A Swing‐based client UI for interacting with the remote PasswordManager service over RMI+SSL.
@@ -11,11 +12,17 @@ import java.util.List;
  * The UI has two “cards” (CardLayout):
  *   1) Login Panel
  *   2) Main Panel (where user can add/get/change/delete/list passwords)
+ *
+ * Logging in opens a VaultSession on the server; the main panel's calls go
+ * through it, so the username and master password are only sent once.
  */
 public class ClientUI extends JFrame implements ClientUIInterface {
 
     private final PasswordManager stub;
 
+    // Open while the main panel is shown; null when logged out
+    private VaultSession session;
+
     private final CardLayout cardLayout = new CardLayout();
     private final JPanel mainPanel = new JPanel(cardLayout);
 
@@ -157,7 +164,7 @@ public class ClientUI extends JFrame implements ClientUIInterface {
     }
 
     /**
-     * Attempt to log in by calling stub.authenticateUser(...)
+     * Attempt to log in by calling stub.openSession(...)
      */
     private void doLogin() {
         String user = usernameField.getText().trim();
@@ -167,8 +174,8 @@ public class ClientUI extends JFrame implements ClientUIInterface {
             return;
         }
         try {
-            boolean ok = stub.authenticateUser(user, pass);
-            if (ok) {
+            session = stub.openSession(user, pass);
+            if (session != null) {
                 welcomeLabel.setText("Logged in as: " + user);
                 cardLayout.show(mainPanel, "USER");
             } else {
@@ -180,10 +187,9 @@ public class ClientUI extends JFrame implements ClientUIInterface {
     }
 
     /**
-     * Add a service + password (calls stub.addPassword).
+     * Add a service + password (calls session.addPassword).
      */
     private void doAddService() {
-        String user = usernameField.getText().trim();
         String service = JOptionPane.showInputDialog(this, "Service name:");
         if (service == null || service.trim().isEmpty()) {
             return;
@@ -193,43 +199,41 @@ public class ClientUI extends JFrame implements ClientUIInterface {
             return;
         }
         try {
-            boolean ok = stub.addPassword(user, service.trim(), pwd.trim());
+            boolean ok = session.addPassword(service.trim(), pwd.trim());
             if (ok) {
                 showMessage("Service \"" + service + "\" added.");
             } else {
                 showMessage("Failed to add: service may already exist.");
             }
         } catch (RemoteException ex) {
-            showMessage("Error during addPassword: " + ex.getMessage());
+            showRemoteError("addPassword", ex);
         }
     }
 
     /**
-     * Retrieve a password for a service (calls stub.getPassword).
+     * Retrieve a password for a service (calls session.getPassword).
      */
     private void doGetPassword() {
-        String user = usernameField.getText().trim();
         String service = JOptionPane.showInputDialog(this, "Service name to retrieve:");
         if (service == null || service.trim().isEmpty()) {
             return;
         }
         try {
-            String pwd = stub.getPassword(user, service.trim());
+            String pwd = session.getPassword(service.trim());
             if (pwd != null) {
                 showMessage("Password for \"" + service + "\": " + pwd);
             } else {
                 showMessage("Service not found.");
             }
         } catch (RemoteException ex) {
-            showMessage("Error during getPassword: " + ex.getMessage());
+            showRemoteError("getPassword", ex);
         }
     }
 
     /**
-     * Change a service password (calls stub.changePassword).
+     * Change a service password (calls session.changePassword).
      */
     private void doChangePassword() {
-        String user = usernameField.getText().trim();
         String service = JOptionPane.showInputDialog(this, "Service name to change:");
         if (service == null || service.trim().isEmpty()) {
             return;
@@ -239,59 +243,87 @@ public class ClientUI extends JFrame implements ClientUIInterface {
             return;
         }
         try {
-            boolean ok = stub.changePassword(user, service.trim(), newPwd.trim());
+            boolean ok = session.changePassword(service.trim(), newPwd.trim());
             if (ok) {
                 showMessage("Password changed for \"" + service + "\".");
             } else {
                 showMessage("Failed to change: service not found.");
             }
         } catch (RemoteException ex) {
-            showMessage("Error during changePassword: " + ex.getMessage());
+            showRemoteError("changePassword", ex);
         }
     }
 
     /**
-     * Delete a service (calls stub.deletePassword).
+     * Delete a service (calls session.deletePassword).
      */
     private void doDeleteService() {
-        String user = usernameField.getText().trim();
         String service = JOptionPane.showInputDialog(this, "Service name to delete:");
         if (service == null || service.trim().isEmpty()) {
             return;
         }
         try {
-            boolean ok = stub.deletePassword(user, service.trim());
+            boolean ok = session.deletePassword(service.trim());
             if (ok) {
                 showMessage("Service \"" + service + "\" deleted.");
             } else {
                 showMessage("Failed to delete: service not found.");
             }
         } catch (RemoteException ex) {
-            showMessage("Error during deletePassword: " + ex.getMessage());
+            showRemoteError("deletePassword", ex);
         }
     }
 
     /**
-     * List all services (calls stub.listServices).
+     * List all services with their passwords (one session.exportVault call
+     * instead of listServices plus a getPassword per service).
      */
     private void doListServices() {
-        String user = usernameField.getText().trim();
         try {
-            List<String> services = stub.listServices(user);
-            if (services.isEmpty()) {
+            Map<String, String> vault = session.exportVault();
+            if (vault.isEmpty()) {
                 showMessage("No services stored.");
-            } else {
-                showMessage("Services: " + services);
+                return;
             }
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> e : vault.entrySet()) {
+                sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+            }
+            JTextArea text = new JTextArea(sb.toString(), Math.min(vault.size(), 15), 30);
+            text.setEditable(false);
+            JOptionPane.showMessageDialog(this, new JScrollPane(text),
+                "Services (" + vault.size() + ")", JOptionPane.INFORMATION_MESSAGE);
         } catch (RemoteException ex) {
-            showMessage("Error during listServices: " + ex.getMessage());
+            showRemoteError("exportVault", ex);
+        }
+    }
+
+    /**
+     * Report a failed remote call.  An expired session sends the user back to log in.
+     */
+    private void showRemoteError(String operation, RemoteException ex) {
+        if (ex instanceof NoSuchObjectException) {
+            session = null;
+            passwordField.setText("");
+            cardLayout.show(mainPanel, "LOGIN");
+            showMessage("Your session has expired. Please log in again.");
+        } else {
+            showMessage("Error during " + operation + ": " + ex.getMessage());
         }
     }
 
     /**
-     * Logout (go back to login card).
+     * Logout (close the session and go back to login card).
      */
     private void doLogout() {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (RemoteException ignored) {
+                // the server ends it on expiry anyway
+            }
+            session = null;
+        }
         usernameField.setText("");
         passwordField.setText("");
         cardLayout.show(mainPanel, "LOGIN");
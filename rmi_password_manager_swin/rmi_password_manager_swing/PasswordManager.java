@@ -1,6 +1,8 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Remote interface for a simple password manager (RMI over SSL).
@@ -27,6 +29,16 @@ public interface PasswordManager extends Remote {
      */
     boolean authenticateUser(String username, String masterPassword) throws RemoteException;
 
+    /**
+     * Authenticate and open a session for the user.  Calls on the returned handle
+     * need no username or password; the handle expires when idle or too old.
+     * @param username       the username
+     * @param masterPassword the plaintext master password
+     * @return a session handle, or null if authentication fails
+     * @throws RemoteException if a remote error occurs or too many sessions are open
+     */
+    VaultSession openSession(String username, String masterPassword) throws RemoteException;
+
     /**
      * Add a new service + password for a given user (stored plaintext).
      * @param username        the existing username
@@ -72,4 +84,30 @@ public interface PasswordManager extends Remote {
      * @throws RemoteException if a remote error occurs
      */
     List<String> listServices(String username) throws RemoteException;
+
+    /**
+     * Retrieve the passwords for several services in one call.
+     * @param username     the existing username
+     * @param serviceNames the services to look up
+     * @return serviceName → plaintext password for the services found (empty if none or if user not found)
+     * @throws RemoteException if a remote error occurs
+     */
+    Map<String, String> getPasswords(String username, Collection<String> serviceNames) throws RemoteException;
+
+    /**
+     * Add several services + passwords in one call.  Services that already exist are left unchanged.
+     * @param username the existing username
+     * @param services serviceName → plaintext password
+     * @return the names of the services that were added (empty if user not found)
+     * @throws RemoteException if a remote error occurs
+     */
+    List<String> addPasswords(String username, Map<String, String> services) throws RemoteException;
+
+    /**
+     * Retrieve every service and its password for the given user.
+     * @param username the existing username
+     * @return serviceName → plaintext password, sorted by service name (empty if none or if user not found)
+     * @throws RemoteException if a remote error occurs
+     */
+    Map<String, String> exportVault(String username) throws RemoteException;
 }
@@ -1,26 +1,81 @@
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Implementation of PasswordManager.  Stores all passwords in plaintext, in memory.
+ * Implementation of PasswordManager.  Stores all passwords in plaintext, in memory,
+ * and records every change in a VaultStore so the vault survives restarts.
+ * A change is applied and appended to the store's log under the user's write
+ * lock; the call then waits, outside the lock, until the log record is on disk.
+ * If a log write fails the store stays failed and every later call is refused,
+ * so changes that never reached the disk are not served.
  * The constructor exports this object using SSL‐enabled socket factories,
  * so that all RMI calls (registerUser, addPassword, getPassword, etc.) are
  * carried over TLS/SSL.
  *
+ * There is no object‐wide lock: each user owns a UserVault guarded by its
+ * own read/write lock, so calls for different users run in parallel and
+ * lookups by the same user only block behind that user's own writes.
+ *
+ * openSession(...) checks the master password once and returns a VaultSession
+ * remote object that holds the user's vault directly, so its calls need no
+ * username lookup or password check.  Sessions expire after SESSION_IDLE_MS
+ * without use or SESSION_MAX_MS after opening, and are dropped when the client
+ * goes away (Unreferenced).  The username-based methods remain for old clients.
+ *
  * A static ServerUIInterface logger can be set via setLogger(...) so that
- * ServerUI receives log messages.
+ * ServerUI receives log messages.  Messages are passed as a format plus
+ * arguments and logged after the user's lock is released.
  */
 public class PasswordManagerImpl extends UnicastRemoteObject implements PasswordManager {
 
-    // In‐memory store: username → masterPassword (plaintext)
-    private final Map<String, String> userMasterPasswords;
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * One user's master password and services.  The master password never
+     * changes after registration; the services map is only touched while
+     * holding the vault's lock.
+     */
+    private static final class UserVault {
+        final String masterPassword;
+        final Map<String, String> services = new HashMap<>();
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        long version; // bumped on every change to services, under the write lock
+
+        UserVault(String masterPassword) {
+            this.masterPassword = masterPassword;
+        }
+    }
+
+    // In‐memory store: username → vault (master password + serviceName → servicePassword)
+    private final ConcurrentMap<String, UserVault> vaults;
+
+    // Durable copy of the vaults
+    private final VaultStore store;
 
-    // In‐memory store: username → (serviceName → servicePassword (plaintext))
-    private final Map<String, Map<String, String>> userServicePasswords;
+    private static final long SESSION_IDLE_MS = 30 * 60 * 1000L;
+    private static final long SESSION_MAX_MS = 12 * 60 * 60 * 1000L;
+    private static final long SESSION_SWEEP_MS = 60 * 1000L;
+    private static final int MAX_SESSIONS = 10_000;
+
+    // Open sessions; expired ones are removed by the sweeper or on their next call
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    // Slots taken against MAX_SESSIONS: reserved before a session is created, freed when it ends
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final ScheduledExecutorService sessionSweeper;
 
     // Logger for Swing UI (may be null if not set)
-    private static ServerUIInterface logger = null;
+    private static volatile ServerUIInterface logger = null;
 
     /** Called by ServerUI to register itself as the log receiver. */
     public static void setLogger(ServerUIInterface uiLogger) {
@@ -31,116 +86,563 @@ public class PasswordManagerImpl extends UnicastRemoteObject implements Password
      * Constructor.
      * We call super(0, SslRMIClientSocketFactory, SslRMIServerSocketFactory)
      * to ensure every remote invocation is carried over SSL/TLS.
+     * The saved vaults are loaded from the store before the object is used.
      */
-    protected PasswordManagerImpl() throws RemoteException {
+    protected PasswordManagerImpl(VaultStore store) throws IOException {
         super(
             /* port = */ 0,
             new javax.rmi.ssl.SslRMIClientSocketFactory(),
             new javax.rmi.ssl.SslRMIServerSocketFactory()
         );
-        userMasterPasswords = Collections.synchronizedMap(new HashMap<>());
-        userServicePasswords = Collections.synchronizedMap(new HashMap<>());
+        vaults = new ConcurrentHashMap<>();
+        this.store = store;
+        store.open(new StoreState());
+        sessionSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sessionSweeper.scheduleWithFixedDelay(this::sweepSessions,
+            SESSION_SWEEP_MS, SESSION_SWEEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Lets the store rebuild the vaults on startup and read them for snapshots. */
+    private final class StoreState implements VaultStore.State {
+        @Override
+        public void register(String username, String masterPassword) {
+            vaults.putIfAbsent(username, new UserVault(masterPassword));
+        }
+
+        @Override
+        public void put(String username, String serviceName, String servicePassword) {
+            vaults.get(username).services.put(serviceName, servicePassword);
+        }
+
+        @Override
+        public void remove(String username, String serviceName) {
+            vaults.get(username).services.remove(serviceName);
+        }
+
+        @Override
+        public void dump(VaultStore.SnapshotWriter out) throws IOException {
+            for (Map.Entry<String, UserVault> e : vaults.entrySet()) {
+                UserVault vault = e.getValue();
+                Map<String, String> copy;
+                vault.lock.readLock().lock();
+                try {
+                    copy = new HashMap<>(vault.services);
+                } finally {
+                    vault.lock.readLock().unlock();
+                }
+                out.user(e.getKey(), vault.masterPassword, copy);
+            }
+        }
+    }
+
+    /** Refuse the call once the store has failed: memory may hold changes that are not on disk. */
+    private void checkStore(String operation) throws RemoteException {
+        try {
+            store.checkAvailable();
+        } catch (IOException e) {
+            throw new RemoteException(operation + " refused, the vault could not be saved", e);
+        }
+    }
+
+    /** Wait until log record `seq` is on disk. */
+    private void awaitDurable(long seq, String operation) throws RemoteException {
+        try {
+            store.awaitDurable(seq);
+        } catch (IOException e) {
+            throw storeFailure(operation, e);
+        }
+    }
+
+    private static RemoteException storeFailure(String operation, IOException e) {
+        error("[SERVER] %s could not be saved: %s", operation, e.getMessage());
+        return new RemoteException(operation + " could not be saved", e);
+    }
+
+    // Formatting is left to the logger, so filtered or queued messages cost no concatenation here.
+    private static void info(String format, Object... args) {
+        ServerUIInterface l = logger;
+        if (l != null) l.log(AsyncLogSink.Level.INFO, format, args);
+    }
+
+    private static void warn(String format, Object... args) {
+        ServerUIInterface l = logger;
+        if (l != null) l.log(AsyncLogSink.Level.WARN, format, args);
+    }
+
+    private static void error(String format, Object... args) {
+        ServerUIInterface l = logger;
+        if (l != null) l.log(AsyncLogSink.Level.ERROR, format, args);
     }
 
     @Override
-    public synchronized boolean registerUser(String username, String masterPassword) throws RemoteException {
-        if (userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] registerUser FAILED (exists): " + username);
-            return false; // already exists
-        }
-        userMasterPasswords.put(username, masterPassword);
-        userServicePasswords.put(username, Collections.synchronizedMap(new HashMap<>()));
-        if (logger != null) logger.log("[SERVER] Registered user: " + username);
+    public boolean registerUser(String username, String masterPassword) throws RemoteException {
+        checkStore("registerUser");
+        // Hold the new vault's write lock until its record is queued, so no
+        // change for this user can reach the log ahead of its registration.
+        UserVault vault = new UserVault(masterPassword);
+        long seq;
+        vault.lock.writeLock().lock();
+        try {
+            if (vaults.putIfAbsent(username, vault) != null) {
+                warn("[SERVER] registerUser FAILED (exists): %s", username);
+                return false; // already exists
+            }
+            try {
+                seq = store.logRegister(username, masterPassword);
+            } catch (IOException e) {
+                vaults.remove(username, vault);
+                throw storeFailure("registerUser", e);
+            }
+        } finally {
+            vault.lock.writeLock().unlock();
+        }
+        awaitDurable(seq, "registerUser");
+        info("[SERVER] Registered user: %s", username);
         return true;
     }
 
     @Override
-    public synchronized boolean authenticateUser(String username, String masterPassword) throws RemoteException {
-        if (!userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] authenticateUser FAILED (no user): " + username);
+    public boolean authenticateUser(String username, String masterPassword) throws RemoteException {
+        checkStore("authenticateUser");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] authenticateUser FAILED (no user): %s", username);
             return false;
         }
-        boolean ok = userMasterPasswords.get(username).equals(masterPassword);
-        if (logger != null) {
-            logger.log(ok
-                ? "[SERVER] Authenticated user: " + username
-                : "[SERVER] Authentication FAILED for: " + username);
+        boolean ok = vault.masterPassword.equals(masterPassword);
+        if (ok) {
+            info("[SERVER] Authenticated user: %s", username);
+        } else {
+            warn("[SERVER] Authentication FAILED for: %s", username);
         }
         return ok;
     }
 
     @Override
-    public synchronized boolean addPassword(String username, String serviceName, String servicePassword) throws RemoteException {
-        if (!userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] addPassword FAILED (no user): " + username);
+    public VaultSession openSession(String username, String masterPassword) throws RemoteException {
+        checkStore("openSession");
+        UserVault vault = vaults.get(username);
+        if (vault == null || !vault.masterPassword.equals(masterPassword)) {
+            warn("[SERVER] openSession FAILED for: %s", username);
+            return null;
+        }
+        if (!reserveSession()) {
+            sweepSessions();
+            if (!reserveSession()) {
+                warn("[SERVER] openSession FAILED (too many sessions): %s", username);
+                throw new RemoteException("Too many open sessions, try again later");
+            }
+        }
+        Session session;
+        try {
+            session = new Session(username, vault);
+        } catch (RemoteException e) {
+            openSessions.decrementAndGet();
+            throw e;
+        }
+        sessions.add(session);
+        info("[SERVER] Opened session for: %s (%d open)", username, openSessions.get());
+        return session;
+    }
+
+    /** Take one of the MAX_SESSIONS slots; false if they are all in use. */
+    private boolean reserveSession() {
+        if (openSessions.incrementAndGet() <= MAX_SESSIONS) return true;
+        openSessions.decrementAndGet();
+        return false;
+    }
+
+    private void sweepSessions() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions) {
+            if (session.isExpired(now)) {
+                session.end("expired");
+            }
+        }
+    }
+
+    @Override
+    public boolean addPassword(String username, String serviceName, String servicePassword) throws RemoteException {
+        checkStore("addPassword");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] addPassword FAILED (no user): %s", username);
             return false;
         }
-        Map<String, String> services = userServicePasswords.get(username);
-        if (services.containsKey(serviceName)) {
-            if (logger != null) logger.log("[SERVER] addPassword FAILED (service exists): " + username + " → " + serviceName);
+        return addPassword(username, vault, serviceName, servicePassword);
+    }
+
+    private boolean addPassword(String username, UserVault vault, String serviceName, String servicePassword) throws RemoteException {
+        long seq = 0;
+        vault.lock.writeLock().lock();
+        try {
+            if (!vault.services.containsKey(serviceName)) {
+                seq = store.logPut(username, serviceName, servicePassword);
+                vault.services.put(serviceName, servicePassword);
+                vault.version++;
+            }
+        } catch (IOException e) {
+            throw storeFailure("addPassword", e);
+        } finally {
+            vault.lock.writeLock().unlock();
+        }
+        if (seq == 0) {
+            warn("[SERVER] addPassword FAILED (service exists): %s → %s", username, serviceName);
             return false; // service already exists
         }
-        services.put(serviceName, servicePassword);
-        if (logger != null) logger.log("[SERVER] [" + username + "] Added service: " + serviceName);
+        awaitDurable(seq, "addPassword");
+        info("[SERVER] [%s] Added service: %s", username, serviceName);
         return true;
     }
 
     @Override
-    public synchronized String getPassword(String username, String serviceName) throws RemoteException {
-        if (!userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] getPassword FAILED (no user): " + username);
+    public String getPassword(String username, String serviceName) throws RemoteException {
+        checkStore("getPassword");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] getPassword FAILED (no user): %s", username);
             return null;
         }
-        Map<String, String> services = userServicePasswords.get(username);
-        if (!services.containsKey(serviceName)) {
-            if (logger != null) logger.log("[SERVER] getPassword FAILED (no service): " + username + " → " + serviceName);
+        return getPassword(username, vault, serviceName);
+    }
+
+    private String getPassword(String username, UserVault vault, String serviceName) {
+        String pwd;
+        vault.lock.readLock().lock();
+        try {
+            pwd = vault.services.get(serviceName);
+        } finally {
+            vault.lock.readLock().unlock();
+        }
+        if (pwd == null) {
+            warn("[SERVER] getPassword FAILED (no service): %s → %s", username, serviceName);
             return null;
         }
-        String pwd = services.get(serviceName);
-        if (logger != null) logger.log("[SERVER] [" + username + "] Retrieved password for: " + serviceName);
+        info("[SERVER] [%s] Retrieved password for: %s", username, serviceName);
         return pwd;
     }
 
     @Override
-    public synchronized boolean changePassword(String username, String serviceName, String newServicePassword) throws RemoteException {
-        if (!userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] changePassword FAILED (no user): " + username);
+    public boolean changePassword(String username, String serviceName, String newServicePassword) throws RemoteException {
+        checkStore("changePassword");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] changePassword FAILED (no user): %s", username);
             return false;
         }
-        Map<String, String> services = userServicePasswords.get(username);
-        if (!services.containsKey(serviceName)) {
-            if (logger != null) logger.log("[SERVER] changePassword FAILED (no service): " + username + " → " + serviceName);
+        return changePassword(username, vault, serviceName, newServicePassword);
+    }
+
+    private boolean changePassword(String username, UserVault vault, String serviceName, String newServicePassword) throws RemoteException {
+        long seq = 0;
+        vault.lock.writeLock().lock();
+        try {
+            if (vault.services.containsKey(serviceName)) {
+                seq = store.logPut(username, serviceName, newServicePassword);
+                vault.services.put(serviceName, newServicePassword);
+                vault.version++;
+            }
+        } catch (IOException e) {
+            throw storeFailure("changePassword", e);
+        } finally {
+            vault.lock.writeLock().unlock();
+        }
+        if (seq == 0) {
+            warn("[SERVER] changePassword FAILED (no service): %s → %s", username, serviceName);
             return false; // no such service
         }
-        services.put(serviceName, newServicePassword);
-        if (logger != null) logger.log("[SERVER] [" + username + "] Changed password for: " + serviceName);
+        awaitDurable(seq, "changePassword");
+        info("[SERVER] [%s] Changed password for: %s", username, serviceName);
         return true;
     }
 
     @Override
-    public synchronized boolean deletePassword(String username, String serviceName) throws RemoteException {
-        if (!userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] deletePassword FAILED (no user): " + username);
+    public boolean deletePassword(String username, String serviceName) throws RemoteException {
+        checkStore("deletePassword");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] deletePassword FAILED (no user): %s", username);
             return false;
         }
-        Map<String, String> services = userServicePasswords.get(username);
-        if (services.remove(serviceName) != null) {
-            if (logger != null) logger.log("[SERVER] [" + username + "] Deleted service: " + serviceName);
+        return deletePassword(username, vault, serviceName);
+    }
+
+    private boolean deletePassword(String username, UserVault vault, String serviceName) throws RemoteException {
+        long seq = 0;
+        vault.lock.writeLock().lock();
+        try {
+            if (vault.services.containsKey(serviceName)) {
+                seq = store.logRemove(username, serviceName);
+                vault.services.remove(serviceName);
+                vault.version++;
+            }
+        } catch (IOException e) {
+            throw storeFailure("deletePassword", e);
+        } finally {
+            vault.lock.writeLock().unlock();
+        }
+        if (seq != 0) {
+            awaitDurable(seq, "deletePassword");
+            info("[SERVER] [%s] Deleted service: %s", username, serviceName);
             return true;
         }
-        if (logger != null) logger.log("[SERVER] deletePassword FAILED (no service): " + username + " → " + serviceName);
+        warn("[SERVER] deletePassword FAILED (no service): %s → %s", username, serviceName);
         return false;
     }
 
     @Override
-    public synchronized List<String> listServices(String username) throws RemoteException {
-        if (!userMasterPasswords.containsKey(username)) {
-            if (logger != null) logger.log("[SERVER] listServices FAILED (no user): " + username);
+    public List<String> listServices(String username) throws RemoteException {
+        checkStore("listServices");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] listServices FAILED (no user): %s", username);
             return Collections.emptyList();
         }
-        List<String> services = new ArrayList<>(userServicePasswords.get(username).keySet());
-        if (logger != null) logger.log("[SERVER] [" + username + "] Listing services: " + services);
+        return listServices(username, vault);
+    }
+
+    private List<String> listServices(String username, UserVault vault) {
+        List<String> services;
+        vault.lock.readLock().lock();
+        try {
+            services = new ArrayList<>(vault.services.keySet());
+        } finally {
+            vault.lock.readLock().unlock();
+        }
+        info("[SERVER] [%s] Listing services: %s", username, services);
         return services;
     }
-}
 
+    @Override
+    public Map<String, String> getPasswords(String username, Collection<String> serviceNames) throws RemoteException {
+        checkStore("getPasswords");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] getPasswords FAILED (no user): %s", username);
+            return Collections.emptyMap();
+        }
+        return getPasswords(username, vault, serviceNames);
+    }
+
+    private Map<String, String> getPasswords(String username, UserVault vault, Collection<String> serviceNames) {
+        Map<String, String> found = new HashMap<>();
+        vault.lock.readLock().lock();
+        try {
+            for (String serviceName : serviceNames) {
+                String pwd = vault.services.get(serviceName);
+                if (pwd != null) {
+                    found.put(serviceName, pwd);
+                }
+            }
+        } finally {
+            vault.lock.readLock().unlock();
+        }
+        info("[SERVER] [%s] Retrieved %d of %d passwords", username, found.size(), serviceNames.size());
+        return found;
+    }
+
+    @Override
+    public List<String> addPasswords(String username, Map<String, String> services) throws RemoteException {
+        checkStore("addPasswords");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] addPasswords FAILED (no user): %s", username);
+            return Collections.emptyList();
+        }
+        return addPasswords(username, vault, services);
+    }
+
+    private List<String> addPasswords(String username, UserVault vault, Map<String, String> services) throws RemoteException {
+        List<String> added = new ArrayList<>();
+        long seq = 0;
+        vault.lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, String> e : services.entrySet()) {
+                if (!vault.services.containsKey(e.getKey())) {
+                    seq = store.logPut(username, e.getKey(), e.getValue());
+                    vault.services.put(e.getKey(), e.getValue());
+                    vault.version++;
+                    added.add(e.getKey());
+                }
+            }
+        } catch (IOException e) {
+            throw storeFailure("addPasswords", e);
+        } finally {
+            vault.lock.writeLock().unlock();
+        }
+        if (seq != 0) {
+            // Records are flushed in order, so the last one being durable covers them all
+            awaitDurable(seq, "addPasswords");
+        }
+        info("[SERVER] [%s] Added %d of %d services", username, added.size(), services.size());
+        return added;
+    }
+
+    @Override
+    public Map<String, String> exportVault(String username) throws RemoteException {
+        checkStore("exportVault");
+        UserVault vault = vaults.get(username);
+        if (vault == null) {
+            warn("[SERVER] exportVault FAILED (no user): %s", username);
+            return Collections.emptyMap();
+        }
+        return exportVault(username, vault);
+    }
+
+    private Map<String, String> exportVault(String username, UserVault vault) {
+        Map<String, String> all;
+        vault.lock.readLock().lock();
+        try {
+            all = new TreeMap<>(vault.services);
+        } finally {
+            vault.lock.readLock().unlock();
+        }
+        info("[SERVER] [%s] Exported vault (%d services)", username, all.size());
+        return all;
+    }
+
+    /**
+     * One logged-in user's session, exported like this object (over SSL).
+     * It keeps the user's vault, so every call skips the username lookup,
+     * and caches the service list until the vault changes.
+     */
+    private final class Session extends UnicastRemoteObject implements VaultSession, Unreferenced {
+        private static final long serialVersionUID = 1L;
+
+        private final String username;
+        private final UserVault vault;
+        private final long created = System.currentTimeMillis();
+        private volatile long lastUsed = created;
+        private volatile boolean closed;
+        private volatile CachedServices cachedServices;
+
+        Session(String username, UserVault vault) throws RemoteException {
+            super(
+                /* port = */ 0,
+                new javax.rmi.ssl.SslRMIClientSocketFactory(),
+                new javax.rmi.ssl.SslRMIServerSocketFactory()
+            );
+            this.username = username;
+            this.vault = vault;
+        }
+
+        boolean isExpired(long now) {
+            return now - lastUsed > SESSION_IDLE_MS || now - created > SESSION_MAX_MS;
+        }
+
+        /** Record a use, or end the session and fail if it has expired or the store has failed. */
+        private void touch() throws RemoteException {
+            checkStore("Session call");
+            long now = System.currentTimeMillis();
+            if (closed || isExpired(now)) {
+                end("expired");
+                throw new NoSuchObjectException("Session expired, please log in again");
+            }
+            lastUsed = now;
+        }
+
+        synchronized void end(String reason) {
+            if (closed) return;
+            closed = true;
+            sessions.remove(this);
+            openSessions.decrementAndGet();
+            try {
+                UnicastRemoteObject.unexportObject(this, true);
+            } catch (NoSuchObjectException ignored) {
+                // already unexported
+            }
+            info("[SERVER] Session for %s %s (%d open)", username, reason, openSessions.get());
+        }
+
+        @Override
+        public void unreferenced() {
+            end("dropped by client");
+        }
+
+        @Override
+        public String getUsername() throws RemoteException {
+            touch();
+            return username;
+        }
+
+        @Override
+        public boolean addPassword(String serviceName, String servicePassword) throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.addPassword(username, vault, serviceName, servicePassword);
+        }
+
+        @Override
+        public String getPassword(String serviceName) throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.getPassword(username, vault, serviceName);
+        }
+
+        @Override
+        public boolean changePassword(String serviceName, String newServicePassword) throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.changePassword(username, vault, serviceName, newServicePassword);
+        }
+
+        @Override
+        public boolean deletePassword(String serviceName) throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.deletePassword(username, vault, serviceName);
+        }
+
+        @Override
+        public List<String> listServices() throws RemoteException {
+            touch();
+            CachedServices cached = cachedServices;
+            vault.lock.readLock().lock();
+            try {
+                if (cached == null || cached.version != vault.version) {
+                    cached = new CachedServices(vault.version,
+                        Collections.unmodifiableList(new ArrayList<>(vault.services.keySet())));
+                    cachedServices = cached;
+                }
+            } finally {
+                vault.lock.readLock().unlock();
+            }
+            info("[SERVER] [%s] Listing services: %s", username, cached.names);
+            return cached.names;
+        }
+
+        @Override
+        public Map<String, String> getPasswords(Collection<String> serviceNames) throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.getPasswords(username, vault, serviceNames);
+        }
+
+        @Override
+        public List<String> addPasswords(Map<String, String> services) throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.addPasswords(username, vault, services);
+        }
+
+        @Override
+        public Map<String, String> exportVault() throws RemoteException {
+            touch();
+            return PasswordManagerImpl.this.exportVault(username, vault);
+        }
+
+        @Override
+        public void close() throws RemoteException {
+            end("closed");
+        }
+    }
+
+    /** A session's copy of the service names, valid while the vault is at `version`. */
+    private static final class CachedServices {
+        final long version;
+        final List<String> names;
+
+        CachedServices(long version, List<String> names) {
+            this.version = version;
+            this.names = names;
+        }
+    }
+}
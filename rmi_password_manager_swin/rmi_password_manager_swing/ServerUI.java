@@ -2,17 +2,35 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
 /**
  * A Swing‐based UI for launching the RMI+SSL PasswordManager service
  * and viewing real‐time log messages from PasswordManagerImpl.
+ *
+ * Log messages go through an AsyncLogSink: the log area shows the newest
+ * SCROLLBACK_LINES lines, everything is also appended to LOG_FILE (rolled
+ * at LOG_FILE_MAX_BYTES), and the level box hides messages below a level.
+ *
+ * Users and services are kept in DATA_DIR (see VaultStore); a snapshot is
+ * taken each time the operation log grows by LOG_COMPACT_BYTES.
  */
 public class ServerUI extends JFrame implements ServerUIInterface {
 
+    private static final int LOG_BUFFER = 8192;
+    private static final int SCROLLBACK_LINES = 5000;
+    private static final String LOG_FILE = "rmi-server.log";
+    private static final long LOG_FILE_MAX_BYTES = 10L * 1024 * 1024;
+    private static final int LOG_FILES_KEPT = 5;
+    private static final String DATA_DIR = "vault-data";
+    private static final long LOG_COMPACT_BYTES = 64L * 1024 * 1024;
+
     private final JTextArea logArea;
     private final JButton startButton;
+    private final AsyncLogSink sink =
+        new AsyncLogSink(LOG_BUFFER, SCROLLBACK_LINES, Paths.get(LOG_FILE), LOG_FILE_MAX_BYTES, LOG_FILES_KEPT);
 
     public ServerUI() {
         setTitle("Password Manager RMI Server");
@@ -37,11 +55,23 @@ public class ServerUI extends JFrame implements ServerUIInterface {
         box.add(startButton);
         box.add(Box.createVerticalStrut(10));
 
+        // Log level filter
+        JPanel levelPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+        levelPanel.add(new JLabel("Log level:"));
+        JComboBox<AsyncLogSink.Level> levelBox = new JComboBox<>(AsyncLogSink.Level.values());
+        levelBox.setSelectedItem(sink.getThreshold());
+        levelBox.addActionListener(e -> sink.setThreshold((AsyncLogSink.Level) levelBox.getSelectedItem()));
+        levelPanel.add(levelBox);
+        levelPanel.setMaximumSize(levelPanel.getPreferredSize());
+        box.add(levelPanel);
+        box.add(Box.createVerticalStrut(10));
+
         // Log area
         logArea = new JTextArea();
         logArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(logArea);
         box.add(scrollPane);
+        sink.attach(logArea);
 
         // Action: When “Start RMI Server” is clicked
         startButton.addActionListener(new ActionListener() {
@@ -54,14 +84,16 @@ public class ServerUI extends JFrame implements ServerUIInterface {
     }
 
     /**
-     * Append a log message (thread‐safe).
+     * Queue a log message (thread‐safe, never blocks).
      */
     @Override
     public void log(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append(message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        sink.info(message);
+    }
+
+    @Override
+    public void log(AsyncLogSink.Level level, String format, Object... args) {
+        sink.log(level, format, args);
     }
 
     /**
@@ -83,13 +115,14 @@ public class ServerUI extends JFrame implements ServerUIInterface {
 
             // 3) Instantiate and export the PasswordManagerImpl (with SSL factories)
             PasswordManagerImpl.setLogger(this);
-            PasswordManagerImpl managerImpl = new PasswordManagerImpl();
+            VaultStore store = new VaultStore(Paths.get(DATA_DIR), LOG_COMPACT_BYTES, this);
+            PasswordManagerImpl managerImpl = new PasswordManagerImpl(store);
+            log("Vault store " + store.describe());
             registry.rebind("PasswordManagerService", managerImpl);
             log("PasswordManagerService bound. Server is ready (SSL enabled).");
 
         } catch (Exception ex) {
-            log("Server exception: " + ex.getMessage());
-            ex.printStackTrace();
+            sink.error(ex, "Server exception: %s", ex.getMessage());
         }
     }
 }
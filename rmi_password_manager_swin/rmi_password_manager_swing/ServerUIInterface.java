@@ -4,4 +4,12 @@
  */
 public interface ServerUIInterface {
     void log(String message);
+
+    /**
+     * Log at a level.  The format is a String.format pattern; implementations
+     * may apply it later, on another thread, or skip it if the level is filtered.
+     */
+    default void log(AsyncLogSink.Level level, String format, Object... args) {
+        log(args.length == 0 ? format : String.format(format, args));
+    }
 }
@@ -0,0 +1,49 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remote handle for one logged-in user, returned by PasswordManager.openSession(...).
+ * Calls act on that user's vault without sending the username again.
+ *
+ * A session ends when close() is called, when it has not been used for a while,
+ * or when it reaches its maximum age.  After that every call throws
+ * java.rmi.NoSuchObjectException and the client must open a new session.
+ */
+public interface VaultSession extends Remote {
+
+    /** @return the user this session belongs to */
+    String getUsername() throws RemoteException;
+
+    /**
+     * Add a new service + password (stored plaintext).
+     * @return true if added; false if the service already exists
+     */
+    boolean addPassword(String serviceName, String servicePassword) throws RemoteException;
+
+    /** @return the plaintext service password, or null if the service is not found */
+    String getPassword(String serviceName) throws RemoteException;
+
+    /** @return true if changed; false if the service is not found */
+    boolean changePassword(String serviceName, String newServicePassword) throws RemoteException;
+
+    /** @return true if deleted; false if the service is not found */
+    boolean deletePassword(String serviceName) throws RemoteException;
+
+    /** @return the service names (empty if none) */
+    List<String> listServices() throws RemoteException;
+
+    /** @return serviceName → plaintext password for the services found */
+    Map<String, String> getPasswords(Collection<String> serviceNames) throws RemoteException;
+
+    /** @return the names of the services that were added; existing ones are left unchanged */
+    List<String> addPasswords(Map<String, String> services) throws RemoteException;
+
+    /** @return every serviceName → plaintext password, sorted by service name */
+    Map<String, String> exportVault() throws RemoteException;
+
+    /** End the session; later calls on this handle fail. */
+    void close() throws RemoteException;
+}
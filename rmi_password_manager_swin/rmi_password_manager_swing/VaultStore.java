@@ -0,0 +1,592 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Disk storage behind PasswordManagerImpl: an append-only operation log plus
+ * compacted snapshots, all in one directory.
+ *
+ * Every change is encoded as a record (length, CRC32, op, UTF‐8 fields) and
+ * appended to the current log segment, log-NNNNNNNNNN.wal.  A single writer
+ * thread does group commit: it writes everything queued since its last pass
+ * and fsyncs once, so concurrent callers share one fsync.  append(...)
+ * returns a sequence number and awaitDurable(seq) waits for that fsync.
+ *
+ * When the current segment reaches compactBytes the writer starts a new
+ * segment and a background thread writes a snapshot of the whole state,
+ * then deletes the older segments.  Records only set or remove values, so
+ * replaying the new segment on top of a snapshot taken while writes
+ * continue still gives the right result.
+ *
+ * On startup open(...) loads the snapshot and replays the remaining
+ * segments through memory-mapped buffers.  The last segment is read into
+ * heap buffers instead: a torn record at its end (a crash mid-write) is cut
+ * off, and a file that is still mapped cannot be truncated on Windows.
+ *
+ * The files hold every password in plaintext, so where the file system
+ * has POSIX permissions the directory is made rwx------ and the files
+ * are created rw-------.
+ */
+public class VaultStore implements Closeable {
+
+    /** The in-memory state the store restores into and snapshots from. */
+    public interface State {
+        void register(String username, String masterPassword);
+        void put(String username, String serviceName, String servicePassword);
+        void remove(String username, String serviceName);
+        /** Write every user to the snapshot; called on the snapshot thread while writes continue. */
+        void dump(SnapshotWriter out) throws IOException;
+    }
+
+    /** Receives users while a snapshot is written. */
+    public interface SnapshotWriter {
+        void user(String username, String masterPassword, Map<String, String> services) throws IOException;
+    }
+
+    private static final byte OP_REGISTER = 1;
+    private static final byte OP_PUT = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_END = 4;
+
+    private static final int SNAPSHOT_MAGIC = 0x504D534E; // "PMSN"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT = "vault.snapshot";
+    private static final String SNAPSHOT_TMP = "vault.snapshot.tmp";
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+    private static final int READ_WINDOW = 1024 * 1024;
+    private static final String DIR_PERMS = "rwx------";
+    private static final String FILE_PERMS = "rw-------";
+
+    private final Path dir;
+    private final long compactBytes;
+    private final ServerUIInterface log;
+    private State state;
+
+    // Group commit: callers fill `pending` under `lock`; the writer thread swaps it out
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasWork = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private Batch pending = new Batch();
+    private Batch writing = new Batch();
+    private long appendedSeq;
+    private long durableSeq;
+    private volatile IOException failure;   // set once, under lock; the store stays failed
+    private boolean closed;
+
+    // Owned by the writer thread once it starts
+    private FileChannel segment;
+    private long generation;
+    private long segmentBytes;
+    private long rollAt;               // segment size at which the next rollover is tried
+    private Thread writer;
+
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private String recovery = "not opened";
+
+    /**
+     * @param dir          directory for the snapshot and log segments (created if missing)
+     * @param compactBytes segment size that triggers a new segment and a snapshot
+     * @param log          receives failures of the background threads (may be null)
+     */
+    public VaultStore(Path dir, long compactBytes, ServerUIInterface log) {
+        this.dir = dir;
+        this.compactBytes = compactBytes;
+        this.log = log;
+    }
+
+    /** Restore the saved state into `state`, then start accepting appends. */
+    public void open(State state) throws IOException {
+        this.state = state;
+        long start = System.nanoTime();
+        Files.createDirectories(dir, ownerOnly(DIR_PERMS));
+        if (isPosix()) {
+            // Also tighten a directory left by an older version
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString(DIR_PERMS));
+        }
+        Files.deleteIfExists(dir.resolve(SNAPSHOT_TMP));
+
+        long snapshotGen = 0;
+        long replayed = 0;
+        Path snapshot = dir.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            long[] result = readSnapshot(snapshot);
+            snapshotGen = result[0];
+            replayed += result[1];
+        }
+
+        List<Long> gens = segmentGenerations();
+        long torn = 0;
+        for (int i = 0; i < gens.size(); i++) {
+            long gen = gens.get(i);
+            Path file = segmentPath(gen);
+            if (gen < snapshotGen) {
+                // Already covered by the snapshot; left behind by a crash before cleanup
+                Files.deleteIfExists(file);
+                continue;
+            }
+            long size = Files.size(file);
+            boolean last = i == gens.size() - 1;
+            long[] result = replay(file, !last);
+            replayed += result[1];
+            if (result[0] < size) {
+                torn += size - result[0];
+                if (last) {
+                    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        ch.truncate(result[0]);
+                        ch.force(true);
+                    }
+                }
+            }
+        }
+
+        generation = gens.isEmpty() ? Math.max(1, snapshotGen) : Math.max(gens.get(gens.size() - 1), snapshotGen);
+        segment = openSegment(generation);
+        segmentBytes = segment.size();
+        rollAt = compactBytes;
+
+        recovery = String.format("recovered %d records (snapshot gen %d, %d segment(s)) in %.1f ms%s",
+                replayed, snapshotGen, gens.size(), (System.nanoTime() - start) / 1e6,
+                torn > 0 ? ", dropped " + torn + " torn bytes" : "");
+
+        writer = new Thread(this::commitLoop, "vault-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public long logRegister(String username, String masterPassword) throws IOException {
+        return append(record(OP_REGISTER, username, masterPassword));
+    }
+
+    public long logPut(String username, String serviceName, String servicePassword) throws IOException {
+        return append(record(OP_PUT, username, serviceName, servicePassword));
+    }
+
+    public long logRemove(String username, String serviceName) throws IOException {
+        return append(record(OP_REMOVE, username, serviceName));
+    }
+
+    /** Block until every record up to `seq` has been fsynced. */
+    public void awaitDurable(long seq) throws IOException {
+        lock.lock();
+        try {
+            while (durableSeq < seq && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durableSeq < seq) {
+                throw new IOException("Vault log is unavailable", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fail if a log write has failed.  Changes are applied in memory before they
+     * are durable, so after a failure the caller must not serve reads either.
+     */
+    public void checkAvailable() throws IOException {
+        IOException f = failure;
+        if (f != null) throw new IOException("Vault log is unavailable", f);
+    }
+
+    public String describe() {
+        return dir.toAbsolutePath() + ": " + recovery;
+    }
+
+    public String stats() {
+        long f = fsyncs.sum(), r = records.sum();
+        return String.format("%d records in %d fsyncs (avg %.1f per fsync), segment %d at %d bytes, %d snapshots",
+                r, f, f == 0 ? 0.0 : (double) r / f, generation, segmentBytes, snapshots.sum());
+    }
+
+    /** Flush what is queued and stop the writer thread. */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private long append(byte[] rec) throws IOException {
+        lock.lock();
+        try {
+            if (failure != null) throw new IOException("Vault log is unavailable", failure);
+            if (closed) throw new IOException("Vault log is closed");
+            pending.add(rec);
+            hasWork.signal();
+            return ++appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (pending.size == 0 && !closed) {
+                    hasWork.awaitUninterruptibly();
+                }
+                if (pending.size == 0) break;
+                Batch b = writing;
+                writing = pending;
+                pending = b;
+                target = appendedSeq;
+            } finally {
+                lock.unlock();
+            }
+
+            long count = writing.count;
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(writing.data, 0, writing.size);
+                while (buf.hasRemaining()) {
+                    segment.write(buf);
+                }
+                segment.force(false);
+                segmentBytes += writing.size;
+            } catch (IOException e) {
+                error("[STORE] Log write failed, refusing further calls: %s", e.getMessage());
+                lock.lock();
+                try {
+                    failure = e;
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            writing.clear();
+            fsyncs.increment();
+            records.add(count);
+
+            lock.lock();
+            try {
+                durableSeq = target;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            if (segmentBytes >= rollAt && snapshotting.compareAndSet(false, true)) {
+                startSnapshot();
+            }
+        }
+        try {
+            segment.close();
+        } catch (IOException ignored) {
+            // everything acknowledged was already forced
+        }
+    }
+
+    /**
+     * Runs on the writer thread: later records go to a new segment while the old state is
+     * snapshotted.  If the new segment cannot be opened, appends carry on in the current
+     * one and the rollover is tried again after another compactBytes.
+     */
+    private void startSnapshot() {
+        long newGen = generation + 1;
+        FileChannel next;
+        try {
+            next = openSegment(newGen);
+        } catch (IOException e) {
+            error("[STORE] Could not start log segment %d, staying on %d: %s", newGen, generation, e.getMessage());
+            rollAt = segmentBytes + compactBytes;
+            snapshotting.set(false);
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException ignored) {
+            // every record in it was already forced
+        }
+        segment = next;
+        segmentBytes = 0;              // nothing is ever written to a generation before it is current
+        rollAt = compactBytes;
+        generation = newGen;
+        Thread t = new Thread(() -> {
+            try {
+                writeSnapshot(newGen);
+                snapshots.increment();
+            } catch (IOException e) {
+                error("[STORE] Snapshot failed, keeping the log: %s", e.getMessage());
+            } finally {
+                snapshotting.set(false);
+            }
+        }, "vault-snapshot");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void error(String format, Object... args) {
+        if (log != null) log.log(AsyncLogSink.Level.ERROR, format, args);
+    }
+
+    private void writeSnapshot(long gen) throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT_TMP);
+        try (FileChannel ch = FileChannel.open(tmp, EnumSet.of(StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), ownerOnly(FILE_PERMS))) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 256 * 1024);
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(gen);
+            out.write(header.array());
+            state.dump((username, masterPassword, services) -> {
+                out.write(record(OP_REGISTER, username, masterPassword));
+                for (Map.Entry<String, String> e : services.entrySet()) {
+                    out.write(record(OP_PUT, username, e.getKey(), e.getValue()));
+                }
+            });
+            out.write(record(OP_END));
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        for (long old : segmentGenerations()) {
+            if (old < gen) {
+                Files.deleteIfExists(segmentPath(old));
+            }
+        }
+    }
+
+    /** Open (or create) a segment for appending; the caller decides when to switch to it. */
+    private FileChannel openSegment(long gen) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(gen), EnumSet.of(StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND), ownerOnly(FILE_PERMS));
+        forceDirectory();
+        return ch;
+    }
+
+    private boolean isPosix() {
+        return dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    /** Permissions to create a file or directory with; none where POSIX permissions are unsupported. */
+    private FileAttribute<?>[] ownerOnly(String perms) {
+        if (!isPosix()) return new FileAttribute<?>[0];
+        return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(perms)) };
+    }
+
+    /** Make a created or renamed file's directory entry durable (not supported everywhere). */
+    private void forceDirectory() {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException ignored) {
+            // e.g. Windows cannot open a directory as a channel
+        }
+    }
+
+    private Path segmentPath(long gen) {
+        return dir.resolve(String.format("log-%010d.wal", gen));
+    }
+
+    private List<Long> segmentGenerations() throws IOException {
+        List<Long> gens = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.startsWith("log-") && name.endsWith(".wal")) {
+                    try {
+                        gens.add(Long.parseLong(name.substring(4, name.length() - 4)));
+                    } catch (NumberFormatException ignored) {
+                        // not one of ours
+                    }
+                }
+            });
+        }
+        Collections.sort(gens);
+        return gens;
+    }
+
+    /** Returns {generation, records}. */
+    private long[] readSnapshot(Path file) throws IOException {
+        try (RecordReader in = new RecordReader(file, true)) {
+            if (!in.ensure(16) || in.buf.getInt() != SNAPSHOT_MAGIC || in.buf.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException(file + " is not a vault snapshot");
+            }
+            long gen = in.buf.getLong();
+            long count = 0;
+            String[] fields = new String[3];
+            while (true) {
+                byte op = in.next(fields);
+                if (op == OP_END) return new long[] { gen, count };
+                if (op < 0) throw new IOException(file + " is truncated or corrupt");
+                apply(op, fields, in.fieldCount);
+                count++;
+            }
+        }
+    }
+
+    /** Returns {valid length, records}. */
+    private long[] replay(Path file, boolean mapped) throws IOException {
+        try (RecordReader in = new RecordReader(file, mapped)) {
+            long count = 0;
+            String[] fields = new String[3];
+            while (true) {
+                long start = in.position();
+                byte op = in.next(fields);
+                if (op < 0) return new long[] { start, count };
+                apply(op, fields, in.fieldCount);
+                count++;
+            }
+        }
+    }
+
+    private void apply(byte op, String[] f, int n) throws IOException {
+        if (op == OP_REGISTER && n == 2) {
+            state.register(f[0], f[1]);
+        } else if (op == OP_PUT && n == 3) {
+            state.put(f[0], f[1], f[2]);
+        } else if (op == OP_REMOVE && n == 2) {
+            state.remove(f[0], f[1]);
+        } else {
+            throw new IOException("Bad vault record (type " + op + ", " + n + " fields)");
+        }
+    }
+
+    /** Encodes one record: int body length, int CRC32 of the body, then the body (op byte, length-prefixed UTF‐8 fields). */
+    private static byte[] record(byte op, String... fields) {
+        byte[][] enc = new byte[fields.length][];
+        int len = 1;
+        for (int i = 0; i < fields.length; i++) {
+            enc[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            len += 4 + enc[i].length;
+        }
+        ByteBuffer b = ByteBuffer.allocate(8 + len);
+        b.putInt(len).putInt(0).put(op);
+        for (byte[] e : enc) {
+            b.putInt(e.length).put(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 8, len);
+        b.putInt(4, (int) crc.getValue());
+        return b.array();
+    }
+
+    /** Growable byte buffer of encoded records waiting for the writer thread. */
+    private static final class Batch {
+        byte[] data = new byte[64 * 1024];
+        int size;
+        long count;
+
+        void add(byte[] rec) {
+            if (size + rec.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + rec.length));
+            }
+            System.arraycopy(rec, 0, data, size, rec.length);
+            size += rec.length;
+            count++;
+        }
+
+        void clear() {
+            size = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads records from a file through read-only mappings of up to MAP_WINDOW
+     * bytes, or through heap buffers of READ_WINDOW bytes when the file may be
+     * truncated afterwards (mappings are only released by the garbage collector).
+     */
+    private static final class RecordReader implements Closeable {
+        private final FileChannel ch;
+        private final long fileSize;
+        private final boolean mapped;
+        private final CRC32 crc = new CRC32();
+        private byte[] scratch = new byte[256];
+        private long base;
+        ByteBuffer buf;
+        int fieldCount;
+
+        RecordReader(Path file, boolean mapped) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+            fileSize = ch.size();
+            this.mapped = mapped;
+            buf = mapped ? ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(MAP_WINDOW, fileSize))
+                         : ByteBuffer.allocate(0);
+        }
+
+        long position() {
+            return base + buf.position();
+        }
+
+        /** Make at least n bytes readable from buf, remapping or reading if needed; false if the file is shorter. */
+        boolean ensure(int n) throws IOException {
+            if (buf.remaining() >= n) return true;
+            long pos = position();
+            if (pos + n > fileSize) return false;
+            if (mapped) {
+                buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Math.max(MAP_WINDOW, n), fileSize - pos));
+            } else {
+                // Keep the unread bytes and fill the rest of the window from the file
+                int want = (int) Math.min(Math.max(READ_WINDOW, n), fileSize - pos);
+                ByteBuffer next = buf.capacity() >= want ? buf.compact() : ByteBuffer.allocate(want).put(buf);
+                next.limit(want);
+                while (next.hasRemaining()) {
+                    if (ch.read(next, pos + next.position()) < 0) throw new EOFException("File shrank while reading");
+                }
+                buf = next.flip();
+            }
+            base = pos;
+            return true;
+        }
+
+        /** Decode the next record into fields; returns its op, or -1 at the end of valid data. */
+        byte next(String[] fields) throws IOException {
+            if (!ensure(8)) return -1;
+            int len = buf.getInt();
+            int expected = buf.getInt();
+            if (len < 1 || len > MAX_RECORD || !ensure(len)) return -1;
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            buf.get(scratch, 0, len);
+            crc.reset();
+            crc.update(scratch, 0, len);
+            if ((int) crc.getValue() != expected) return -1;
+            ByteBuffer body = ByteBuffer.wrap(scratch, 0, len);
+            byte op = body.get();
+            int n = 0;
+            while (body.hasRemaining()) {
+                if (n == fields.length || body.remaining() < 4) return -1;
+                int flen = body.getInt();
+                if (flen < 0 || flen > body.remaining()) return -1;
+                fields[n++] = new String(scratch, body.position(), flen, StandardCharsets.UTF_8);
+                body.position(body.position() + flen);
+            }
+            fieldCount = n;
+            return op;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
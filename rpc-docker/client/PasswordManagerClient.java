@@ -4,16 +4,38 @@ import javax.swing.*;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.AbstractTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.net.ssl.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import com.google.gson.*;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 
 /**
@@ -23,6 +45,9 @@ import java.security.SecureRandom;
  *  - Main table of accounts
  *  - “Consulter le mot de passe” (show plaintext)
  *  - “Déconnecter” (end session, go back to login)
+ *
+ * Requests never block the Swing thread: they go through a {@link ServerConnection},
+ * and replies are handled back on the EDT when they arrive.
  */
 public class PasswordManagerClient {
     private static final Color PRIMARY_COLOR   = new Color(240, 240, 240);
@@ -34,9 +59,25 @@ public class PasswordManagerClient {
 
     private static final Gson gson = new Gson();
     private static String sessionToken = null;
-    private static SSLSocket socket;
-    private static BufferedReader in;
-    private static PrintWriter out;
+    private static ServerConnection server;
+    private static final long REQUEST_TIMEOUT_MS = 15_000;
+    // Connects and writes requests, keeping network I/O off the Swing thread.
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pm-client-io");
+        t.setDaemon(true);
+        return t;
+    });
+    // Built once and reused so that reconnects resume the previous TLS session.
+    private static SSLContext tlsContext;
+    private static final String[] TLS_PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    // Preset dictionary for reply compression; must match the server's byte for byte.
+    private static final byte[] COMPRESSION_DICTIONARY = ("\"results\":[{\"index\":\"password\":\"message\":\"Account not found\""
+            + "\"nextAfterScore\":\"nextAfterId\":\"hasMore\":false,\"hasMore\":true,"
+            + "{\"requestId\":\"success\":true,\"accounts\":["
+            + "{\"id\":\",\"compte\":\"\",\"account_username\":\"\",\"notes\":\"\"},")
+            .getBytes(StandardCharsets.UTF_8);
+    // Sent in hello; the server only compresses if its dictionary has the same CRC-32.
+    private static final String COMPRESSION_DICTIONARY_ID = dictionaryId(COMPRESSION_DICTIONARY);
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -59,10 +100,18 @@ public class PasswordManagerClient {
         } catch (Exception ignored) {}
     }
 
+    /** CRC-32 of a compression dictionary as 8 hex digits, as the server computes it. */
+    private static String dictionaryId(byte[] dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(dictionary);
+        return String.format("%08x", crc.getValue());
+    }
+
     /** First frame: connect to host/port over SSL. */
     static class ConnectionFrame extends JFrame {
         private final JTextField hostField;
         private final JTextField portField;
+        private final JButton connectBtn = createButton("Connect", ACCENT_COLOR);
 
         ConnectionFrame() {
             setTitle("Connect to Password Manager Server");
@@ -104,7 +153,6 @@ public class PasswordManagerClient {
             gbc.gridx = 1;
             panel.add(createTextField(portField), gbc);
 
-            JButton connectBtn = createButton("Connect", ACCENT_COLOR);
             connectBtn.addActionListener(e -> connectAction());
             gbc.gridx = 0; gbc.gridy = 3; gbc.gridwidth = 2;
             panel.add(connectBtn, gbc);
@@ -119,26 +167,23 @@ public class PasswordManagerClient {
                 showError("Please fill all fields");
                 return;
             }
+            int port;
             try {
-                int port = Integer.parseInt(portText);
-                SSLContext ctx = SSLContext.getInstance("TLS");
-                ctx.init(null, new TrustManager[]{ new X509TrustManager() {
-                    public java.security.cert.X509Certificate[] getAcceptedIssuers() { return null; }
-                    public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                    public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                }}, new SecureRandom());
-                SSLSocketFactory factory = ctx.getSocketFactory();
-                socket = (SSLSocket) factory.createSocket(host, port);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
-                JOptionPane.showMessageDialog(this, "Connected!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                dispose();
-                new LoginFrame();
+                port = Integer.parseInt(portText);
             } catch (NumberFormatException ex) {
                 showError("Port must be a number");
-            } catch (Exception ex) {
-                showError("Connection failed: " + ex.getMessage());
+                return;
             }
+            connectBtn.setEnabled(false);
+            whenReplied(ServerConnection.open(host, port), conn -> {
+                server = conn;
+                JOptionPane.showMessageDialog(this, "Connected!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                dispose();
+                new LoginFrame();
+            }, msg -> {
+                connectBtn.setEnabled(true);
+                showError("Connection failed: " + msg);
+            });
         }
 
         private void showError(String msg) {
@@ -217,25 +262,26 @@ public class PasswordManagerClient {
                 showError("Please fill all fields");
                 return;
             }
-            try {
-                JsonObject req = new JsonObject();
-                req.addProperty("action", "login");
-                req.addProperty("username", u);
-                req.addProperty("password", p);
-                out.println(gson.toJson(req));
-                String resp = in.readLine();
-                JsonObject r = gson.fromJson(resp, JsonObject.class);
+            JsonObject req = new JsonObject();
+            req.addProperty("action", "login");
+            req.addProperty("username", u);
+            req.addProperty("password", p);
+            whenReplied(server.send(req), r -> {
                 if (r.get("success").getAsBoolean()) {
                     sessionToken = r.get("sessionToken").getAsString();
                     JOptionPane.showMessageDialog(this, "Login successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                    dispose();
-                    new MainFrame(u);
+                    // Without a readable cache the main frame pages from the server as before.
+                    whenReplied(VaultCache.open(server.endpoint, u, p), cache -> {
+                        dispose();
+                        new MainFrame(u, cache);
+                    }, msg -> {
+                        dispose();
+                        new MainFrame(u, null);
+                    });
                 } else {
                     showError(r.get("message").getAsString());
                 }
-            } catch (Exception ex) {
-                showError("Login failed: " + ex.getMessage());
-            }
+            }, msg -> showError("Login failed: " + msg));
             passField.setText("");
         }
 
@@ -333,14 +379,11 @@ public class PasswordManagerClient {
                 showError("Password must be at least 6 characters");
                 return;
             }
-            try {
-                JsonObject req = new JsonObject();
-                req.addProperty("action", "register");
-                req.addProperty("username", u);
-                req.addProperty("password", p);
-                out.println(gson.toJson(req));
-                String resp = in.readLine();
-                JsonObject r = gson.fromJson(resp, JsonObject.class);
+            JsonObject req = new JsonObject();
+            req.addProperty("action", "register");
+            req.addProperty("username", u);
+            req.addProperty("password", p);
+            whenReplied(server.send(req), r -> {
                 if (r.get("success").getAsBoolean()) {
                     JOptionPane.showMessageDialog(this, "Registration successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
                     dispose();
@@ -348,9 +391,7 @@ public class PasswordManagerClient {
                 } else {
                     showError(r.get("message").getAsString());
                 }
-            } catch (Exception ex) {
-                showError("Registration failed: " + ex.getMessage());
-            }
+            }, msg -> showError("Registration failed: " + msg));
             passField.setText("");
             confirmField.setText("");
         }
@@ -362,14 +403,33 @@ public class PasswordManagerClient {
 
     /** Main application frame showing the list of accounts. */
     static class MainFrame extends JFrame {
+        private static final int PAGE_SIZE = 100;
+        // Server searches wait for a pause in typing; cached searches run on every keystroke.
+        private static final int SEARCH_DEBOUNCE_MS = 250;
+
         private final String username;
+        private VaultCache cache;               // null: list and search page by page from the server
         private final java.util.List<Account> accounts = new ArrayList<>();
         private final JTable table;
         private final AccountTableModel model;
         private final JTextField searchField = new JTextField();
-
-        MainFrame(String username) {
+        private final javax.swing.Timer searchDebounce = new javax.swing.Timer(SEARCH_DEBOUNCE_MS, e -> searchAccounts());
+        private JScrollPane scroll;
+
+        // Paging state of the rows on screen: the search term (null = all accounts)
+        // and the server's cursor for the next page.
+        private String activeSearch;
+        private boolean hasMore;
+        private boolean loadingPage;
+        private int nextAfterId;
+        private double nextAfterScore;
+        // The page request in flight, cancelled when a new listing replaces this one.
+        private CompletableFuture<JsonObject> pageRequest;
+        private int listing;
+
+        MainFrame(String username, VaultCache cache) {
             this.username = username;
+            this.cache = cache;
             setTitle("Password Manager - " + username);
             setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             setSize(900, 600);
@@ -405,6 +465,13 @@ public class PasswordManagerClient {
             JLabel searchLabel = createLabel("Rechercher :");
             searchPanel.add(searchLabel);
             searchField.setPreferredSize(new Dimension(250, 30));
+            searchField.addActionListener(e -> searchAccounts());
+            searchDebounce.setRepeats(false);
+            searchField.getDocument().addDocumentListener(new DocumentListener() {
+                @Override public void insertUpdate(DocumentEvent e) { searchAsYouType(); }
+                @Override public void removeUpdate(DocumentEvent e) { searchAsYouType(); }
+                @Override public void changedUpdate(DocumentEvent e) {}
+            });
             searchPanel.add(searchField);
             JButton searchBtn = createButton("Rechercher", ACCENT_COLOR);
             searchBtn.addActionListener(e -> searchAccounts());
@@ -428,8 +495,9 @@ public class PasswordManagerClient {
             th.setForeground(Color.WHITE);
             th.setFont(new Font("Segoe UI", Font.BOLD, 14));
             table.setTableHeader(th);
-            JScrollPane scroll = new JScrollPane(table);
+            scroll = new JScrollPane(table);
             scroll.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
+            scroll.getVerticalScrollBar().addAdjustmentListener(e -> loadMoreIfNearBottom());
 
             // BUTTONS
             JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 15, 15));
@@ -470,32 +538,11 @@ public class PasswordManagerClient {
         }
 
         private void loadAccounts() {
-            try {
-                JsonObject req = new JsonObject();
-                req.addProperty("action", "getAccounts");
-                req.addProperty("sessionToken", sessionToken);
-                out.println(gson.toJson(req));
-                String resp = in.readLine();
-                JsonObject r = gson.fromJson(resp, JsonObject.class);
-                if (r.get("success").getAsBoolean()) {
-                    accounts.clear();
-                    JsonArray arr = r.getAsJsonArray("accounts");
-                    for (JsonElement el : arr) {
-                        JsonObject obj = el.getAsJsonObject();
-                        Account a = new Account(
-                                obj.get("id").getAsInt(),
-                                obj.get("compte").getAsString(),
-                                obj.get("account_username").getAsString(),
-                                obj.get("notes").getAsString()
-                        );
-                        accounts.add(a);
-                    }
-                    model.fireTableDataChanged();
-                } else {
-                    showError(r.get("message").getAsString());
-                }
-            } catch (Exception e) {
-                showError("Cannot load accounts: " + e.getMessage());
+            if (cache != null) {
+                showCached(null);
+                syncCache();
+            } else {
+                startListing(null);
             }
         }
 
@@ -503,62 +550,155 @@ public class PasswordManagerClient {
             String term = searchField.getText().trim();
             if (term.isEmpty()) {
                 loadAccounts();
-                return;
+            } else if (cache != null) {
+                showCached(term);
+            } else {
+                startListing(term);
             }
-            try {
-                JsonObject req = new JsonObject();
+        }
+
+        /** Type-ahead: filter the cache at once, or search the server after a pause. */
+        private void searchAsYouType() {
+            if (cache != null) {
+                String term = searchField.getText().trim();
+                showCached(term.isEmpty() ? null : term);
+            } else {
+                searchDebounce.restart();
+            }
+        }
+
+        /** Show the cached accounts, or those matching term, without asking the server. */
+        private void showCached(String term) {
+            if (pageRequest != null) {
+                pageRequest.cancel(false);
+                pageRequest = null;
+            }
+            listing++;
+            loadingPage = false;
+            activeSearch = term;
+            hasMore = false;
+            accounts.clear();
+            accounts.addAll(term == null ? cache.all() : cache.search(term));
+            model.fireTableDataChanged();
+        }
+
+        /** Pull the server's changes into the cache and redraw if there were any. */
+        private void syncCache() {
+            VaultCache syncing = cache;
+            whenReplied(syncing.sync(server, sessionToken), changed -> {
+                if (syncing != cache) return;
+                if (syncing.isTooLarge()) {
+                    syncing.discard();
+                    cache = null;               // too big to hold here; page from the server
+                    startListing(activeSearch);
+                } else if (changed) {
+                    showCached(activeSearch);
+                }
+            }, msg -> {
+                if (msg.startsWith("Unknown action")) {
+                    cache = null;               // the server predates syncAccounts
+                    startListing(activeSearch);
+                } else {
+                    showError("Cannot refresh accounts: " + msg);
+                }
+            });
+        }
+
+        /** Reset the table to the first page of all accounts (term == null) or of a search. */
+        private void startListing(String term) {
+            if (pageRequest != null) {
+                pageRequest.cancel(false);
+                pageRequest = null;
+            }
+            listing++;
+            loadingPage = false;
+            activeSearch = term;
+            accounts.clear();
+            model.fireTableDataChanged();
+            hasMore = true;
+            nextAfterId = 0;
+            nextAfterScore = -Double.MAX_VALUE;
+            loadNextPage();
+        }
+
+        /** Fetch the next page once the user scrolls within ten rows of the end. */
+        private void loadMoreIfNearBottom() {
+            if (!hasMore || loadingPage) return;
+            JScrollBar bar = scroll.getVerticalScrollBar();
+            int remaining = bar.getMaximum() - (bar.getValue() + bar.getVisibleAmount());
+            if (remaining <= table.getRowHeight() * 10) {
+                loadNextPage();
+            }
+        }
+
+        /** Fetch the next page of the current listing and append it to the table. */
+        private void loadNextPage() {
+            if (!hasMore || loadingPage) return;
+            loadingPage = true;
+            JsonObject req = new JsonObject();
+            if (activeSearch == null) {
+                req.addProperty("action", "getAccounts");
+            } else {
                 req.addProperty("action", "searchAccounts");
-                req.addProperty("sessionToken", sessionToken);
-                req.addProperty("searchTerm", term);
-                out.println(gson.toJson(req));
-                String resp = in.readLine();
-                JsonObject r = gson.fromJson(resp, JsonObject.class);
+                req.addProperty("searchTerm", activeSearch);
+                req.addProperty("afterScore", nextAfterScore);
+            }
+            req.addProperty("sessionToken", sessionToken);
+            req.addProperty("limit", PAGE_SIZE);
+            req.addProperty("afterId", nextAfterId);
+            req.addProperty("stream", true);
+            int current = listing;
+            pageRequest = server.send(req);
+            whenReplied(pageRequest, r -> {
+                if (current != listing) return;         // answered after a newer listing began
+                pageRequest = null;
+                loadingPage = false;
                 if (r.get("success").getAsBoolean()) {
-                    accounts.clear();
-                    JsonArray arr = r.getAsJsonArray("accounts");
-                    for (JsonElement el : arr) {
-                        JsonObject obj = el.getAsJsonObject();
-                        Account a = new Account(
-                                obj.get("id").getAsInt(),
-                                obj.get("compte").getAsString(),
-                                obj.get("account_username").getAsString(),
-                                obj.get("notes").getAsString()
-                        );
-                        accounts.add(a);
+                    int first = accounts.size();
+                    for (JsonElement el : r.getAsJsonArray("accounts")) {
+                        accounts.add(Account.fromJson(el.getAsJsonObject()));
+                    }
+                    // Servers without paging send everything at once and no cursor.
+                    hasMore = r.has("hasMore") && r.get("hasMore").getAsBoolean();
+                    if (r.has("nextAfterId")) nextAfterId = r.get("nextAfterId").getAsInt();
+                    if (r.has("nextAfterScore")) nextAfterScore = r.get("nextAfterScore").getAsDouble();
+                    if (accounts.size() > first) {
+                        model.fireTableRowsInserted(first, accounts.size() - 1);
                     }
-                    model.fireTableDataChanged();
                 } else {
+                    hasMore = false;
                     showError(r.get("message").getAsString());
                 }
-            } catch (Exception e) {
-                showError("Search failed: " + e.getMessage());
-            }
+                // Keep going until the viewport is filled.
+                SwingUtilities.invokeLater(this::loadMoreIfNearBottom);
+            }, msg -> {
+                if (current != listing) return;
+                pageRequest = null;
+                loadingPage = false;
+                hasMore = false;
+                showError((activeSearch == null ? "Cannot load accounts: " : "Search failed: ") + msg);
+            });
         }
 
         private void createAccount() {
             AccountDialog dlg = new AccountDialog(this, "Créer un compte", null);
             Account a = dlg.getAccount();
             if (a != null) {
-                try {
-                    JsonObject req = new JsonObject();
-                    req.addProperty("action", "createAccount");
-                    req.addProperty("sessionToken", sessionToken);
-                    req.addProperty("compte", a.getCompte());
-                    req.addProperty("account_username", a.getAccountUsername());
-                    req.addProperty("password", a.getPassword());
-                    req.addProperty("notes", a.getNotes());
-                    out.println(gson.toJson(req));
-                    String resp = in.readLine();
-                    JsonObject r = gson.fromJson(resp, JsonObject.class);
+                JsonObject req = new JsonObject();
+                req.addProperty("action", "createAccount");
+                req.addProperty("sessionToken", sessionToken);
+                req.addProperty("compte", a.getCompte());
+                req.addProperty("account_username", a.getAccountUsername());
+                req.addProperty("password", a.getPassword());
+                req.addProperty("notes", a.getNotes());
+                whenReplied(server.send(req), r -> {
                     if (r.get("success").getAsBoolean()) {
                         showSuccess("Account created");
                         loadAccounts();
                     } else {
                         showError(r.get("message").getAsString());
                     }
-                } catch (Exception e) {
-                    showError("Create failed: " + e.getMessage());
-                }
+                }, msg -> showError("Create failed: " + msg));
             }
         }
 
@@ -572,27 +712,22 @@ public class PasswordManagerClient {
             AccountDialog dlg = new AccountDialog(this, "Modifier le compte", orig);
             Account updated = dlg.getAccount();
             if (updated != null) {
-                try {
-                    JsonObject req = new JsonObject();
-                    req.addProperty("action", "updateAccount");
-                    req.addProperty("sessionToken", sessionToken);
-                    req.addProperty("id", orig.getId());
-                    req.addProperty("compte", updated.getCompte());
-                    req.addProperty("account_username", updated.getAccountUsername());
-                    req.addProperty("password", updated.getPassword());
-                    req.addProperty("notes", updated.getNotes());
-                    out.println(gson.toJson(req));
-                    String resp = in.readLine();
-                    JsonObject r = gson.fromJson(resp, JsonObject.class);
+                JsonObject req = new JsonObject();
+                req.addProperty("action", "updateAccount");
+                req.addProperty("sessionToken", sessionToken);
+                req.addProperty("id", orig.getId());
+                req.addProperty("compte", updated.getCompte());
+                req.addProperty("account_username", updated.getAccountUsername());
+                req.addProperty("password", updated.getPassword());
+                req.addProperty("notes", updated.getNotes());
+                whenReplied(server.send(req), r -> {
                     if (r.get("success").getAsBoolean()) {
                         showSuccess("Account updated");
                         loadAccounts();
                     } else {
                         showError(r.get("message").getAsString());
                     }
-                } catch (Exception e) {
-                    showError("Update failed: " + e.getMessage());
-                }
+                }, msg -> showError("Update failed: " + msg));
             }
         }
 
@@ -611,23 +746,18 @@ public class PasswordManagerClient {
                     JOptionPane.QUESTION_MESSAGE
             );
             if (c == JOptionPane.YES_OPTION) {
-                try {
-                    JsonObject req = new JsonObject();
-                    req.addProperty("action", "deleteAccount");
-                    req.addProperty("sessionToken", sessionToken);
-                    req.addProperty("id", a.getId());
-                    out.println(gson.toJson(req));
-                    String resp = in.readLine();
-                    JsonObject r = gson.fromJson(resp, JsonObject.class);
+                JsonObject req = new JsonObject();
+                req.addProperty("action", "deleteAccount");
+                req.addProperty("sessionToken", sessionToken);
+                req.addProperty("id", a.getId());
+                whenReplied(server.send(req), r -> {
                     if (r.get("success").getAsBoolean()) {
                         showSuccess("Account deleted");
                         loadAccounts();
                     } else {
                         showError(r.get("message").getAsString());
                     }
-                } catch (Exception e) {
-                    showError("Delete failed: " + e.getMessage());
-                }
+                }, msg -> showError("Delete failed: " + msg));
             }
         }
 
@@ -638,14 +768,11 @@ public class PasswordManagerClient {
                 return;
             }
             Account a = accounts.get(row);
-            try {
-                JsonObject req = new JsonObject();
-                req.addProperty("action", "getPassword");
-                req.addProperty("sessionToken", sessionToken);
-                req.addProperty("id", a.getId());
-                out.println(gson.toJson(req));
-                String resp = in.readLine();
-                JsonObject r = gson.fromJson(resp, JsonObject.class);
+            JsonObject req = new JsonObject();
+            req.addProperty("action", "getPassword");
+            req.addProperty("sessionToken", sessionToken);
+            req.addProperty("id", a.getId());
+            whenReplied(server.send(req), r -> {
                 if (r.get("success").getAsBoolean()) {
                     String pwd = r.get("password").getAsString();
                     JOptionPane.showMessageDialog(
@@ -657,9 +784,7 @@ public class PasswordManagerClient {
                 } else {
                     showError(r.get("message").getAsString());
                 }
-            } catch (Exception e) {
-                showError("Impossible de récupérer le mot de passe: " + e.getMessage());
-            }
+            }, msg -> showError("Impossible de récupérer le mot de passe: " + msg));
         }
 
         private void disconnect() {
@@ -671,12 +796,20 @@ public class PasswordManagerClient {
                     JOptionPane.QUESTION_MESSAGE
             );
             if (c == JOptionPane.YES_OPTION) {
+                if (pageRequest != null) {
+                    pageRequest.cancel(false);
+                }
+                JsonObject req = new JsonObject();
+                req.addProperty("action", "logout");
+                req.addProperty("sessionToken", sessionToken);
+                // Hang up once the server has answered; it also ends the session when the
+                // connection closes, so a failed logout needs no handling.
+                ServerConnection conn = server;
+                server = null;
+                conn.send(req).whenComplete((r, ex) -> conn.close());
                 sessionToken = null;
                 accounts.clear();
                 dispose();
-                try {
-                    socket.close();
-                } catch (IOException ignored) {}
                 new ConnectionFrame();
             }
         }
@@ -813,6 +946,26 @@ public class PasswordManagerClient {
             this.notes = notes;
         }
 
+        /** Build an Account from a row of a getAccounts/searchAccounts reply. */
+        static Account fromJson(JsonObject obj) {
+            JsonElement notes = obj.get("notes");
+            return new Account(
+                    obj.get("id").getAsInt(),
+                    obj.get("compte").getAsString(),
+                    obj.get("account_username").getAsString(),
+                    (notes == null || notes.isJsonNull()) ? "" : notes.getAsString()
+            );
+        }
+
+        JsonObject toJson() {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("id", id);
+            obj.addProperty("compte", compte);
+            obj.addProperty("account_username", accountUsername);
+            obj.addProperty("notes", notes);
+            return obj;
+        }
+
         Account(Account other) {
             this.id = other.id;
             this.compte = other.compte;
@@ -832,6 +985,353 @@ public class PasswordManagerClient {
         void setNotes(String n) { this.notes = n; }
     }
 
+    /**
+     * Account metadata (never passwords) kept on disk between sessions and brought up
+     * to date with syncAccounts, so opening the vault or searching it needs no listing
+     * from the server. The file is sealed with AES-GCM under a key derived from the
+     * login password; if it cannot be opened the cache simply starts empty.
+     */
+    static final class VaultCache {
+        private static final byte[] MAGIC = {'P', 'M', 'C', '1'};
+        private static final int KDF_ITERATIONS = 210_000;
+        private static final int SYNC_PAGE = 2000;
+        // Beyond this the vault is not kept locally and the main frame pages from the server.
+        static final int MAX_LOCAL_ACCOUNTS = 250_000;
+
+        private final Path file;
+        private final byte[] aad;
+        private final byte[] salt;
+        private final SecretKey key;
+        private final Object fileLock = new Object();
+        private final TreeMap<Integer, Account> accounts = new TreeMap<>();
+        private int changeSeq;
+        private long version;                   // bumped on every change to accounts
+        // Read by the Swing thread without locking; replaced whole by reindex() once a
+        // newer one is built, so searches use the previous index until then.
+        private volatile SearchIndex index = new SearchIndex(java.util.List.of());
+        private long indexedVersion = -1;       // guarded by this
+        private boolean tooLarge;
+        private boolean saveFailureShown;       // guarded by fileLock
+
+        private VaultCache(Path file, String username, byte[] salt, String password)
+                throws GeneralSecurityException {
+            this.file = file;
+            this.aad = username.getBytes(StandardCharsets.UTF_8);
+            this.salt = salt;
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, KDF_ITERATIONS, 256);
+            byte[] raw = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            spec.clearPassword();
+            this.key = new SecretKeySpec(raw, "AES");
+        }
+
+        /** Derive the key and read the cache for this server and user, off the Swing thread. */
+        static CompletableFuture<VaultCache> open(String endpoint, String username, String password) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return load(endpoint, username, password);
+                } catch (GeneralSecurityException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        private static VaultCache load(String endpoint, String username, String password)
+                throws GeneralSecurityException {
+            byte[] name = MessageDigest.getInstance("SHA-256")
+                    .digest((endpoint + '\0' + username).getBytes(StandardCharsets.UTF_8));
+            Path file = Paths.get(System.getProperty("user.home"), ".password-manager",
+                    "cache-" + HexFormat.of().formatHex(name, 0, 16) + ".bin");
+            try {
+                ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+                byte[] magic = new byte[4], salt = new byte[16], iv = new byte[12];
+                in.get(magic).get(salt).get(iv);
+                if (Arrays.equals(magic, MAGIC)) {
+                    VaultCache cache = new VaultCache(file, username, salt, password);
+                    Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+                    c.init(Cipher.DECRYPT_MODE, cache.key, new GCMParameterSpec(128, iv));
+                    c.updateAAD(cache.aad);
+                    byte[] plain = c.doFinal(in.array(), in.position(), in.remaining());
+                    cache.restore(gson.fromJson(new String(plain, StandardCharsets.UTF_8), JsonObject.class));
+                    cache.reindex();                // build it here rather than on the first keystroke
+                    return cache;
+                }
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                // Missing, from another password, or damaged: rebuild it from the server.
+            }
+            byte[] salt = new byte[16];
+            new SecureRandom().nextBytes(salt);
+            return new VaultCache(file, username, salt, password);
+        }
+
+        private synchronized void restore(JsonObject saved) {
+            for (JsonElement el : saved.getAsJsonArray("accounts")) {
+                Account a = Account.fromJson(el.getAsJsonObject());
+                accounts.put(a.getId(), a);
+            }
+            changeSeq = saved.get("changeSeq").getAsInt();
+        }
+
+        /**
+         * Every cached account, in id order. The Account objects are shared and must not
+         * be modified (AccountDialog edits a copy); syncs replace them rather than change them.
+         */
+        java.util.List<Account> all() {
+            return index.all();
+        }
+
+        /**
+         * Accounts where every word of the term starts a word of the name, username or
+         * notes, ignoring case: the same word-prefix match as the server's searchAccounts.
+         */
+        java.util.List<Account> search(String term) {
+            return index.search(term);
+        }
+
+        /** Index the current accounts and publish the result unless a newer one got there first. */
+        private void reindex() {
+            java.util.List<Account> rows;
+            long v;
+            synchronized (this) {
+                rows = new ArrayList<>(accounts.values());
+                v = version;
+            }
+            SearchIndex built = new SearchIndex(rows);
+            synchronized (this) {
+                if (v > indexedVersion) {
+                    indexedVersion = v;
+                    index = built;
+                }
+            }
+        }
+
+        /** True once a sync found more accounts than MAX_LOCAL_ACCOUNTS; the cache stops there. */
+        synchronized boolean isTooLarge() {
+            return tooLarge;
+        }
+
+        /** Forget the cache, on disk too. */
+        void discard() {
+            synchronized (fileLock) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ignored) {}
+            }
+        }
+
+        /**
+         * Pull every change since the last sync. Completes with true if the cache changed,
+         * in which case it is also written back to disk.
+         */
+        CompletableFuture<Boolean> sync(ServerConnection conn, String token) {
+            int since = changeSeq();
+            JsonObject req = new JsonObject();
+            req.addProperty("action", "syncAccounts");
+            req.addProperty("sessionToken", token);
+            req.addProperty("modifiedSince", since);
+            req.addProperty("limit", SYNC_PAGE);
+            return conn.send(req).thenCompose(r -> {
+                if (!r.get("success").getAsBoolean()) {
+                    throw new CompletionException(new IOException(r.get("message").getAsString()));
+                }
+                boolean fullResync = r.has("fullResync") && r.get("fullResync").getAsBoolean();
+                if (fullResync || r.get("changeSeq").getAsInt() < since) {
+                    // Deletions since our number were forgotten, or the server's counter went
+                    // backwards because its database was replaced: either way start over.
+                    reset();
+                    return sync(conn, token).thenApply(changed -> true);
+                }
+                boolean changed = apply(r);
+                if (isTooLarge()) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                if (r.get("hasMore").getAsBoolean()) {
+                    return sync(conn, token).thenApply(more -> changed || more);
+                }
+                if (!changed) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                // Complete only once the new index is in place, so the redraw shows the changes.
+                return CompletableFuture.runAsync(this::reindex).thenApply(done -> {
+                    CompletableFuture.runAsync(this::save);
+                    return true;
+                });
+            });
+        }
+
+        private synchronized int changeSeq() {
+            return changeSeq;
+        }
+
+        private synchronized void reset() {
+            accounts.clear();
+            changeSeq = 0;
+            version++;
+        }
+
+        private synchronized boolean apply(JsonObject r) {
+            JsonArray changed = r.getAsJsonArray("accounts");
+            JsonArray deleted = r.getAsJsonArray("deletedIds");
+            for (JsonElement el : changed) {
+                Account a = Account.fromJson(el.getAsJsonObject());
+                accounts.put(a.getId(), a);
+            }
+            for (JsonElement el : deleted) {
+                accounts.remove(el.getAsInt());
+            }
+            changeSeq = Math.max(changeSeq, r.get("changeSeq").getAsInt());
+            tooLarge = accounts.size() > MAX_LOCAL_ACCOUNTS;
+            if (changed.size() == 0 && deleted.size() == 0) {
+                return false;
+            }
+            version++;
+            return true;
+        }
+
+        /**
+         * Seal and write the cache. On failure the old file is deleted, since it no longer
+         * matches the server, and the user is told once; the next login syncs from 0.
+         */
+        private void save() {
+            java.util.List<Account> copy;
+            int seq;
+            synchronized (this) {
+                copy = new ArrayList<>(accounts.values());
+                seq = changeSeq;
+            }
+            // Accounts are replaced rather than modified, so the copy can be serialized unlocked.
+            JsonObject saved = new JsonObject();
+            saved.addProperty("changeSeq", seq);
+            JsonArray rows = new JsonArray();
+            for (Account a : copy) rows.add(a.toJson());
+            saved.add("accounts", rows);
+            byte[] plain = gson.toJson(saved).getBytes(StandardCharsets.UTF_8);
+            synchronized (fileLock) {
+                try {
+                    byte[] iv = new byte[12];
+                    new SecureRandom().nextBytes(iv);
+                    Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+                    c.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                    c.updateAAD(aad);
+                    byte[] sealed = c.doFinal(plain);
+                    Files.createDirectories(file.getParent());
+                    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                    Files.write(tmp, ByteBuffer.allocate(4 + salt.length + iv.length + sealed.length)
+                            .put(MAGIC).put(salt).put(iv).put(sealed).array());
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException | GeneralSecurityException e) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {}
+                    if (!saveFailureShown) {
+                        saveFailureShown = true;
+                        String msg = "Could not save the offline account cache (" + e.getMessage()
+                                + "). It will be downloaded again at the next login.";
+                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+                                null, msg, "Warning", JOptionPane.WARNING_MESSAGE));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Trigram index over the cached accounts' name, username and notes. Each query word
+     * of three or more characters narrows the candidates to rows holding all of its
+     * trigrams; every candidate is then checked for the words themselves. A row matches
+     * when each word starts a word of its text, like the server's FTS prefix query, and
+     * results come back in id order.
+     */
+    static final class SearchIndex {
+        private static final int[] NONE = new int[0];
+
+        private final Account[] rows;
+        private final String[] text;                // lower-cased searchable text per row
+        private final Map<Long, int[]> postings = new HashMap<>();
+
+        SearchIndex(Collection<Account> accounts) {
+            rows = accounts.toArray(new Account[0]);
+            text = new String[rows.length];
+            Map<Long, int[]> building = new HashMap<>();   // [size, rows...], grown by doubling
+            for (int i = 0; i < rows.length; i++) {
+                String t = searchText(rows[i]);
+                text[i] = t;
+                for (int j = 0; j + 3 <= t.length(); j++) {
+                    int[] list = building.computeIfAbsent(trigram(t, j), k -> new int[4]);
+                    int n = list[0];
+                    if (n > 0 && list[n] == i) continue;    // repeated within this row
+                    if (n + 1 == list.length) {
+                        list = Arrays.copyOf(list, list.length * 2);
+                        building.put(trigram(t, j), list);
+                    }
+                    list[n + 1] = i;
+                    list[0] = n + 1;
+                }
+            }
+            building.forEach((k, list) -> postings.put(k, Arrays.copyOfRange(list, 1, list[0] + 1)));
+        }
+
+        /** Every indexed account, in id order, as a read-only list. */
+        java.util.List<Account> all() {
+            return Collections.unmodifiableList(Arrays.asList(rows));
+        }
+
+        /** The accounts where every word of the term starts a word of the name, username or notes. */
+        java.util.List<Account> search(String term) {
+            String[] words = Arrays.stream(term.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                    .filter(w -> !w.isEmpty()).toArray(String[]::new);
+            int[] candidates = null;                      // null: every row
+            for (String w : words) {
+                for (int j = 0; j + 3 <= w.length(); j++) {
+                    int[] list = postings.getOrDefault(trigram(w, j), NONE);
+                    candidates = (candidates == null) ? list : intersect(candidates, list);
+                    if (candidates.length == 0) return new ArrayList<>();
+                }
+            }
+            int n = (candidates == null) ? rows.length : candidates.length;
+            java.util.List<Account> found = new ArrayList<>();
+            for (int k = 0; k < n; k++) {
+                int i = (candidates == null) ? k : candidates[k];
+                if (containsAll(text[i], words)) found.add(rows[i]);
+            }
+            return found;
+        }
+
+        private static String searchText(Account a) {
+            return (a.getCompte() + '\n' + a.getAccountUsername() + '\n' + a.getNotes()).toLowerCase(Locale.ROOT);
+        }
+
+        private static long trigram(String s, int i) {
+            return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+
+        private static boolean containsAll(String text, String[] words) {
+            for (String w : words) {
+                if (!startsWord(text, w)) return false;
+            }
+            return true;
+        }
+
+        /** True if w occurs in text at the start of a word. */
+        private static boolean startsWord(String text, String w) {
+            for (int i = text.indexOf(w); i >= 0; i = text.indexOf(w, i + 1)) {
+                if (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))) return true;
+            }
+            return false;
+        }
+
+        /** Rows in both sorted lists. */
+        private static int[] intersect(int[] a, int[] b) {
+            int[] out = new int[Math.min(a.length, b.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else { out[n++] = a[i]; i++; j++; }
+            }
+            return Arrays.copyOf(out, n);
+        }
+    }
+
     /** TableModel for displaying accounts in a JTable. */
     static class AccountTableModel extends AbstractTableModel {
         private final java.util.List<Account> accounts;
@@ -868,6 +1368,200 @@ public class PasswordManagerClient {
         }
     }
 
+    /** The client SSLContext, created on first connect; it holds the TLS session cache. */
+    private static synchronized SSLContext tlsContext() throws Exception {
+        if (tlsContext == null) {
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(null, new TrustManager[]{ new X509TrustManager() {
+                public java.security.cert.X509Certificate[] getAcceptedIssuers() { return null; }
+                public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+                public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+            }}, new SecureRandom());
+            ctx.getClientSessionContext().setSessionCacheSize(16);
+            ctx.getClientSessionContext().setSessionTimeout(4 * 60 * 60);
+            tlsContext = ctx;
+        }
+        return tlsContext;
+    }
+
+    /**
+     * One connection to the server, used from the Swing thread without ever blocking it.
+     *
+     * Each request is tagged with a fresh "requestId" and written by the shared I/O
+     * thread; a reader thread per connection matches replies back to their futures by
+     * that id, so several requests can be outstanding at once. A future that times out
+     * or is cancelled is forgotten, and its reply is dropped if it turns up later.
+     */
+    static final class ServerConnection {
+        final String endpoint;                  // host:port, names this server's local cache
+        private final SSLSocket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private final Map<String, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>();
+        private final AtomicLong nextId = new AtomicLong();
+        // Non-null once the server agreed to deflate replies; one stream per connection.
+        private Inflater inflater;
+        private volatile boolean closed;
+
+        private ServerConnection(String endpoint, SSLSocket socket) throws IOException {
+            this.endpoint = endpoint;
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        }
+
+        /** Connect on the I/O thread; completes once the connection is ready for requests. */
+        static CompletableFuture<ServerConnection> open(String host, int port) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    SSLSocket s = (SSLSocket) tlsContext().getSocketFactory().createSocket(host, port);
+                    s.setEnabledProtocols(TLS_PROTOCOLS);
+                    s.setTcpNoDelay(true);
+                    ServerConnection conn = new ServerConnection(host + ":" + port, s);
+                    conn.negotiateCompression();
+                    Thread reader = new Thread(conn::readLoop, "pm-client-reader");
+                    reader.setDaemon(true);
+                    reader.start();
+                    return conn;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, IO);
+        }
+
+        /** Send a request; the future completes with the reply, or fails after REQUEST_TIMEOUT_MS. */
+        CompletableFuture<JsonObject> send(JsonObject req) {
+            String id = Long.toString(nextId.incrementAndGet());
+            req.addProperty("requestId", id);
+            CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+            pending.put(id, reply);
+            reply.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                 .whenComplete((r, ex) -> pending.remove(id));
+            if (closed) {
+                reply.completeExceptionally(new IOException("Not connected"));
+                return reply;
+            }
+            String line = gson.toJson(req);
+            IO.execute(() -> {
+                out.println(line);
+                if (out.checkError()) {
+                    reply.completeExceptionally(new IOException("Connection lost"));
+                }
+            });
+            return reply;
+        }
+
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+
+        /**
+         * Ask the server to deflate large replies; an older server, or one whose dictionary
+         * differs from ours, just says no.
+         */
+        private void negotiateCompression() throws IOException {
+            JsonObject hello = new JsonObject();
+            hello.addProperty("action", "hello");
+            hello.addProperty("compress", "deflate");
+            hello.addProperty("compressDictionary", COMPRESSION_DICTIONARY_ID);
+            out.println(gson.toJson(hello));
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("Connection closed by server");
+            }
+            JsonObject resp = gson.fromJson(line, JsonObject.class);
+            if (resp.has("compress") && "deflate".equals(resp.get("compress").getAsString())) {
+                inflater = new Inflater();
+            }
+        }
+
+        /** Hand each reply to the future waiting for its requestId until the connection ends. */
+        private void readLoop() {
+            IOException cause = new IOException("Connection closed by server");
+            try {
+                String line;
+                while ((line = readReply()) != null) {
+                    JsonObject r = gson.fromJson(line, JsonObject.class);
+                    if (!r.has("requestId")) {
+                        // Untagged: the server is refusing the connection (busy, bad input).
+                        cause = new IOException(r.has("message") ? r.get("message").getAsString() : line);
+                        continue;
+                    }
+                    CompletableFuture<JsonObject> f = pending.remove(r.get("requestId").getAsString());
+                    if (f != null) {
+                        f.complete(r);
+                    }
+                }
+            } catch (IOException | JsonParseException e) {
+                if (!closed) cause = new IOException(e.getMessage(), e);
+            } finally {
+                close();
+                for (CompletableFuture<JsonObject> f : pending.values()) {
+                    f.completeExceptionally(cause);
+                }
+                pending.clear();
+            }
+        }
+
+        /** Read one reply line, inflating it if the server sent it as {"z":"..."}. */
+        private String readReply() throws IOException {
+            String line = in.readLine();
+            if (line == null || inflater == null || !line.startsWith("{\"z\":\"")) {
+                return line;
+            }
+            byte[] z = Base64.getDecoder().decode(line.substring(6, line.length() - 2));
+            return inflate(z);
+        }
+
+        private String inflate(byte[] z) throws IOException {
+            inflater.setInput(z);
+            ByteArrayOutputStream plain = new ByteArrayOutputStream(z.length * 4);
+            byte[] buf = new byte[8192];
+            try {
+                while (true) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && inflater.needsDictionary()) {
+                        inflater.setDictionary(COMPRESSION_DICTIONARY);
+                        continue;
+                    }
+                    if (n == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    plain.write(buf, 0, n);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed reply", e);
+            }
+            return plain.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Run onReply (or onError, with a readable message) on the Swing thread once the
+     * reply arrives. Cancelled requests are dropped without a word.
+     */
+    private static <T> void whenReplied(CompletableFuture<T> reply, Consumer<T> onReply, Consumer<String> onError) {
+        reply.whenComplete((r, ex) -> SwingUtilities.invokeLater(() -> {
+            Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+            if (cause instanceof CancellationException) {
+                return;
+            }
+            if (cause != null) {
+                onError.accept(cause instanceof TimeoutException ? "the server did not answer in time"
+                        : String.valueOf(cause.getMessage()));
+                return;
+            }
+            try {
+                onReply.accept(r);
+            } catch (RuntimeException e) {
+                onError.accept("unexpected reply: " + e.getMessage());
+            }
+        }));
+    }
+
     // ─── Styled Component Utilities ─────────────────────────────────
 
     private static JLabel createLabel(String text) {
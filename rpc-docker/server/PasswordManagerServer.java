@@ -2,35 +2,175 @@
 
 import javax.net.ssl.*;
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.sql.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * PasswordManagerServer with a simple Swing GUI.
  * 
  * - Click “Start Server” to begin listening on the SSL port.
  * - The GUI shows real‐time log messages.
- * - Supports JSON actions: register, login, getAccounts, getPassword, createAccount, updateAccount, deleteAccount, searchAccounts.
+ * - Supports JSON actions: register, login, logout, getAccounts, getPassword, createAccount, updateAccount, deleteAccount, searchAccounts.
+ * - Batch actions createAccounts ("accounts": [...]), getPasswords and deleteAccounts
+ *   ("ids": [...]) take up to MAX_BATCH_SIZE items, run as one transaction, and reply
+ *   with one entry per item in "results".
+ * - Clients may speak a length-prefixed binary TLV framing instead of JSON lines by
+ *   sending BinaryCodec.MAGIC as their first byte; the server detects it per connection.
+ *   The metrics report compares bytes and message counts for both formats.
+ * - {"action":"hello","compress":"deflate","compressDictionary":"<crc32>"} turns on
+ *   per-connection compression: replies of COMPRESS_THRESHOLD bytes or more are deflated
+ *   (a negative threshold disables it). It is refused unless the client's dictionary
+ *   CRC-32 matches ReplyCompressor.DICTIONARY_ID.
+ * - A request may carry a "requestId", which is echoed in its reply. Tagged requests
+ *   can be pipelined. Requests for different sessions run concurrently; within a session
+ *   everything runs in the order sent, except that consecutive single-id getPassword
+ *   reads run in parallel with each other.
+ *   An untagged request waits for everything sent before it on the connection and
+ *   holds back everything sent after it, so untagged requests are answered in order.
+ * - syncAccounts returns what changed since the client's "modifiedSince" change number,
+ *   including deletions, so a client with a local copy only downloads the difference.
+ *   Deletion records are kept for TOMBSTONE_RETENTION_DAYS (0 keeps them forever); a
+ *   client whose number is older than the oldest one kept gets "fullResync": true and
+ *   must reload from 0.
+ * - getAccounts/searchAccounts accept an optional "limit" plus the cursor returned by the
+ *   previous page ("afterId", and "afterScore" for searches), and "stream": true to have
+ *   rows written as they are read instead of being collected first.
+ * - Connections run on a bounded executor; tune it with the MAX_CONNECTIONS and
+ *   CONNECTION_BACKLOG environment variables. TRANSPORT=nio switches to a non-blocking
+ *   SSLEngine transport instead: NIO_EVENT_LOOPS selector threads and NIO_WORKERS request
+ *   threads serve up to NIO_MAX_CONNECTIONS clients.
+ * - Sessions expire after SESSION_IDLE_TTL_SEC without use or SESSION_MAX_TTL_SEC after
+ *   login, at most MAX_SESSIONS are kept (least recently used evicted first), and a
+ *   connection's sessions end when it disconnects or sends the "logout" action.
+ * - TLS prefers 1.3 and resumes sessions (tickets, or a TLS_SESSION_CACHE-entry cache
+ *   kept for TLS_SESSION_TIMEOUT_SEC), so reconnecting clients skip the full handshake.
+ * - Passwords are hashed with PBKDF2 on HASH_THREADS dedicated threads. The iteration count
+ *   is KDF_ITERATIONS, or calibrated at startup to take about KDF_TARGET_MS.
+ * - Database access goes through a shared SQLite pool (WAL mode, DB_POOL_SIZE readers,
+ *   one writer, DB_POOL_WAIT_MS borrow timeout).
+ * - Logging is asynchronous: messages at LOG_LEVEL or above (DEBUG adds per-read request
+ *   lines) go through a LOG_BUFFER-message ring buffer to the log area, which keeps the
+ *   newest LOG_SCROLLBACK lines, and to LOG_FILE, rolled every LOG_FILE_MAX_MB megabytes
+ *   with LOG_FILES_KEPT old files kept. A full buffer drops messages rather than block.
  */
 public class PasswordManagerServer {
 
     private static final int DEFAULT_PORT = 8443;
     private static final String DB_URL = "jdbc:sqlite:password_manager.db";
-    private static final Map<String, String> activeSessions = new ConcurrentHashMap<>();
-    private static final Gson gson = new Gson();
+    private static final int MAX_CONNECTIONS = intSetting("MAX_CONNECTIONS", 1000);
+    private static final int CONNECTION_BACKLOG = intSetting("CONNECTION_BACKLOG", 200);
+    private static final int DB_POOL_SIZE = intSetting("DB_POOL_SIZE", 4);
+    private static final int DB_POOL_WAIT_MS = intSetting("DB_POOL_WAIT_MS", 5000);
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_SYNC_PAGE = 5000;
+    private static final int MAX_BATCH_SIZE = intSetting("MAX_BATCH_SIZE", 5000);
+    private static final int COMPRESS_THRESHOLD = intSetting("COMPRESS_THRESHOLD", 1024);
+    private static final int SESSION_IDLE_TTL_SEC = intSetting("SESSION_IDLE_TTL_SEC", 30 * 60);
+    private static final int SESSION_MAX_TTL_SEC = intSetting("SESSION_MAX_TTL_SEC", 12 * 60 * 60);
+    private static final int MAX_SESSIONS = intSetting("MAX_SESSIONS", 100_000);
+    private static final int TOMBSTONE_RETENTION_DAYS = intSetting("TOMBSTONE_RETENTION_DAYS", 90);
+    private static final long TOMBSTONE_PRUNE_INTERVAL_MS = TimeUnit.HOURS.toMillis(6);
+    private static final int KDF_ITERATIONS = intSetting("KDF_ITERATIONS", 0);
+    private static final int KDF_TARGET_MS = intSetting("KDF_TARGET_MS", 100);
+    private static final int HASH_THREADS = intSetting("HASH_THREADS", Runtime.getRuntime().availableProcessors());
+    private static final int HASH_QUEUE = intSetting("HASH_QUEUE", 256);
+    private static final int PIPELINE_WORKERS = intSetting("PIPELINE_WORKERS", 4 * Runtime.getRuntime().availableProcessors());
+    private static final int PIPELINE_DRAIN_MS = 30_000;
+    private static final String TRANSPORT = stringSetting("TRANSPORT", "blocking");
+    private static final int NIO_EVENT_LOOPS = intSetting("NIO_EVENT_LOOPS", 2);
+    private static final int NIO_WORKERS = intSetting("NIO_WORKERS", 4 * Runtime.getRuntime().availableProcessors());
+    private static final int NIO_WORKER_QUEUE = intSetting("NIO_WORKER_QUEUE", 1024);
+    private static final int NIO_MAX_CONNECTIONS = intSetting("NIO_MAX_CONNECTIONS", 50_000);
+    private static final int TLS_SESSION_CACHE = intSetting("TLS_SESSION_CACHE", 20_000);
+    private static final int TLS_SESSION_TIMEOUT_SEC = intSetting("TLS_SESSION_TIMEOUT_SEC", 4 * 60 * 60);
+    private static final String LOG_LEVEL = stringSetting("LOG_LEVEL", "INFO");
+    private static final int LOG_BUFFER = intSetting("LOG_BUFFER", 8192);
+    private static final int LOG_SCROLLBACK = intSetting("LOG_SCROLLBACK", 5000);
+    private static final String LOG_FILE = stringSetting("LOG_FILE", "password_manager.log");
+    private static final int LOG_FILE_MAX_MB = intSetting("LOG_FILE_MAX_MB", 10);
+    private static final int LOG_FILES_KEPT = intSetting("LOG_FILES_KEPT", 5);
+    private static final String[] TLS_PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final String[] TLS_CIPHER_SUITES = {
+        "TLS_AES_128_GCM_SHA256", "TLS_CHACHA20_POLY1305_SHA256", "TLS_AES_256_GCM_SHA384",
+        "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+        "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+    };
+    private static SSLContext sslContext;
     private static SecretKey serverKey;
+    private static ConnectionPool db;
+    private static VaultRepository repo;
+    private static PasswordHasher hasher;
+    private static NioServer nioServer;
+    private static final AsyncLogSink LOG = newLogSink();
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -72,6 +212,17 @@ public class PasswordManagerServer {
             });
             top.add(startButton);
 
+            JButton metricsButton = new JButton("Metrics");
+            metricsButton.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+            metricsButton.addActionListener(e -> log(metricsReport()));
+            top.add(metricsButton);
+
+            JComboBox<AsyncLogSink.Level> levelBox = new JComboBox<>(AsyncLogSink.Level.values());
+            levelBox.setSelectedItem(LOG.getThreshold());
+            levelBox.setToolTipText("Hide log messages below this level");
+            levelBox.addActionListener(e -> LOG.setThreshold((AsyncLogSink.Level) levelBox.getSelectedItem()));
+            top.add(levelBox);
+
             cp.add(top, BorderLayout.NORTH);
 
             logArea = new JTextArea();
@@ -79,132 +230,3174 @@ public class PasswordManagerServer {
             logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
             JScrollPane scroll = new JScrollPane(logArea);
             cp.add(scroll, BorderLayout.CENTER);
+            LOG.attach(logArea);
         }
 
-        /** Append a message to the log area (thread‐safe). */
+        /** Queue a message for the log area and log file (thread‐safe, never blocks). */
         private void log(String msg) {
-            SwingUtilities.invokeLater(() -> {
-                logArea.append(msg + "\n");
-                logArea.setCaretPosition(logArea.getDocument().getLength());
-            });
+            LOG.info(msg);
         }
 
         /** Main server‐loop: initialize DB, key, SSL, then accept clients. */
         private void runServer() {
             running = true;
             try {
-                initializeDatabase();
-                log("[SERVER] Database initialized.");
+                db = new ConnectionPool(DB_URL, DB_POOL_SIZE, DB_POOL_WAIT_MS);
+                log("[SERVER] Database pool opened (" + DB_POOL_SIZE + " readers, 1 writer, WAL).");
+                repo = new VaultRepository(db);
+
+                log("[SERVER] Database initialized (" + initializeDatabase() + ").");
+                for (Map.Entry<String, String> plan : repo.explainPlans().entrySet()) {
+                    if (VaultRepository.usesIndex(plan.getValue())) {
+                        log("[SERVER] " + plan.getKey() + " plan: " + plan.getValue());
+                    } else {
+                        LOG.warn("[SERVER] %s does not use an index, expect it to slow down as the vault grows: %s",
+                                plan.getKey(), plan.getValue());
+                    }
+                }
+
+                if (TOMBSTONE_RETENTION_DAYS > 0) {
+                    startTombstonePruner();
+                    log("[SERVER] Sync deletion records kept " + TOMBSTONE_RETENTION_DAYS + " days.");
+                }
 
                 generateServerKey();
                 log("[SERVER] AES key generated.");
 
-                SSLContext ctx = createSSLContext();
+                int iterations = (KDF_ITERATIONS > 0) ? KDF_ITERATIONS : PasswordHasher.calibrate(KDF_TARGET_MS);
+                hasher = new PasswordHasher(HASH_THREADS, HASH_QUEUE, iterations);
+                log("[SERVER] Password KDF: PBKDF2-HMAC-SHA256, " + iterations + " iterations, "
+                        + HASH_THREADS + " hashing threads.");
+
+                SSLContext ctx = sslContext();
+                if ("nio".equalsIgnoreCase(TRANSPORT)) {
+                    NioServer nio = new NioServer(ctx, NIO_EVENT_LOOPS, NIO_WORKERS, NIO_WORKER_QUEUE, NIO_MAX_CONNECTIONS);
+                    nio.bind(port, CONNECTION_BACKLOG);
+                    nioServer = nio;
+                    log("[SERVER] Listening on SSL port " + port + " (" + nio.describe() + ")");
+                    nio.serve();
+                    return;
+                }
                 SSLServerSocketFactory factory = ctx.getServerSocketFactory();
-                SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(port);
+                SSLServerSocket serverSocket = (SSLServerSocket) factory.createServerSocket(port, CONNECTION_BACKLOG);
+                serverSocket.setSSLParameters(tlsParameters(ctx));
                 log("[SERVER] Listening on SSL port " + port);
 
+                ConnectionExecutor executor = new ConnectionExecutor(MAX_CONNECTIONS, CONNECTION_BACKLOG);
+                log("[SERVER] Connection executor: " + executor.describe());
+
                 while (running) {
                     SSLSocket clientSock = (SSLSocket) serverSocket.accept();
-                    log("[SERVER] Accepted " + clientSock.getInetAddress());
-                    new Thread(new ClientHandler(clientSock)).start();
+                    if (executor.submit(new ClientHandler(clientSock))) {
+                        log("[SERVER] Accepted " + clientSock.getInetAddress());
+                    } else {
+                        log("[SERVER] Busy, rejected " + clientSock.getInetAddress());
+                        executor.rejectBusy(clientSock);
+                    }
                 }
 
             } catch (Exception ex) {
-                log("[SERVER] Exception: " + ex.getMessage());
-                ex.printStackTrace();
+                LOG.error(ex, "[SERVER] Exception: %s", ex.getMessage());
             }
         }
     }
 
-    /** Initialize SQLite tables if they do not exist. */
-    private static void initializeDatabase() throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            String createUsers = """
-                CREATE TABLE IF NOT EXISTS users (
-                  username TEXT PRIMARY KEY,
-                  password_hash TEXT NOT NULL,
-                  salt TEXT NOT NULL,
-                  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-                )
-                """;
-            String createAccounts = """
-                CREATE TABLE IF NOT EXISTS accounts (
-                  id INTEGER PRIMARY KEY AUTOINCREMENT,
-                  username TEXT NOT NULL,
-                  compte TEXT NOT NULL,
-                  account_username TEXT NOT NULL,
-                  encrypted_password TEXT NOT NULL,
-                  notes TEXT,
-                  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                  FOREIGN KEY(username) REFERENCES users(username)
-                )
-                """;
-            conn.createStatement().execute(createUsers);
-            conn.createStatement().execute(createAccounts);
+    /**
+     * Asynchronous log sink behind the server frame's log area and the request logging.
+     *
+     * Callers put a level, a format string and its arguments into a bounded ring
+     * buffer and return at once; formatting and all I/O happen on one background
+     * thread.  When the buffer is full the message is dropped and counted instead
+     * of blocking the caller.
+     *
+     * The background thread drains messages in batches, appends each batch to a
+     * rolling log file, and hands it to the attached text area.  At most one
+     * Swing event is pending at a time, and the text area is trimmed to the
+     * newest scrollbackLines lines.
+     *
+     * Kept in sync with rmi_password_manager_swin/rmi_password_manager_swing/AsyncLogSink.java:
+     * apart from visibility the two classes are identical, and a fix to one belongs in both.
+     * This server is built from its own directory (see Dockerfile.server), so it cannot
+     * share that file.
+     */
+    static final class AsyncLogSink {
+
+        enum Level {
+            DEBUG, INFO, WARN, ERROR;
+
+            // Padded so file columns line up
+            final String label = String.format("%-5s ", name());
+        }
+
+        private static final int MAX_BATCH = 512;
+        private static final long POLL_MS = 250;
+        private static final DateTimeFormatter STAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+        private static final class Entry {
+            final long time;
+            final Level level;
+            final String format;
+            final Object[] args;
+            final Throwable thrown;
+
+            Entry(long time, Level level, String format, Object[] args, Throwable thrown) {
+                this.time = time;
+                this.level = level;
+                this.format = format;
+                this.args = args;
+                this.thrown = thrown;
+            }
+        }
+
+        private final BlockingQueue<Entry> ring;
+        private final int scrollbackLines;
+        private final LongAdder written = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final Thread writer;
+        private volatile Level threshold = Level.INFO;
+        private volatile JTextArea area;
+        private volatile boolean closed;
+
+        // Only touched by the writer thread after construction; null when file logging is off
+        private RollingFile file;
+
+        // Lines waiting for the EDT, oldest first (guarded by itself)
+        private final ArrayDeque<String> pendingUi = new ArrayDeque<>();
+        private boolean uiFlushScheduled;
+
+        /**
+         * @param capacity        ring buffer size, in messages
+         * @param scrollbackLines lines kept in the attached text area
+         * @param logFile         file to append to, or null for none
+         * @param maxFileBytes    roll the file once it reaches this size (0 = never)
+         * @param keepFiles       rolled files to keep as logFile.1 .. logFile.N
+         */
+        AsyncLogSink(int capacity, int scrollbackLines, Path logFile, long maxFileBytes, int keepFiles) {
+            this.ring = new ArrayBlockingQueue<>(Math.max(1, capacity));
+            this.scrollbackLines = Math.max(1, scrollbackLines);
+            if (logFile != null) {
+                try {
+                    file = new RollingFile(logFile, maxFileBytes, keepFiles);
+                } catch (IOException e) {
+                    System.err.println("[LOG] Cannot open " + logFile + ": " + e.getMessage());
+                }
+            }
+            writer = new Thread(this::drain, "log-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        }
+
+        /** Show future messages in this text area (called once the UI exists). */
+        void attach(JTextArea textArea) {
+            area = textArea;
+        }
+
+        void setThreshold(Level level) {
+            threshold = level;
+        }
+
+        Level getThreshold() {
+            return threshold;
+        }
+
+        /** True if a message at this level would be kept; use it to skip building costly arguments. */
+        boolean isEnabled(Level level) {
+            return level.compareTo(threshold) >= 0;
+        }
+
+        /**
+         * Queue a message.  The format is a String.format pattern, applied on the
+         * writer thread, so arguments should not be mutated after the call.
+         */
+        void log(Level level, String format, Object... args) {
+            log(level, null, format, args);
+        }
+
+        /** Queue a message followed by the throwable's stack trace (thrown may be null). */
+        void log(Level level, Throwable thrown, String format, Object... args) {
+            if (!isEnabled(level) || closed) return;
+            if (!ring.offer(new Entry(System.currentTimeMillis(), level, format, args, thrown))) {
+                dropped.increment();
+            }
+        }
+
+        void debug(String format, Object... args) { log(Level.DEBUG, format, args); }
+        void info(String format, Object... args)  { log(Level.INFO, format, args); }
+        void warn(String format, Object... args)  { log(Level.WARN, format, args); }
+        void error(String format, Object... args) { log(Level.ERROR, format, args); }
+        void error(Throwable thrown, String format, Object... args) { log(Level.ERROR, thrown, format, args); }
+
+        String stats() {
+            return written.sum() + " written, " + dropped.sum() + " dropped, "
+                    + ring.size() + " queued, level " + threshold
+                    + (file == null ? ", no file" : ", file " + file.path);
+        }
+
+        /** Write out whatever is queued and stop the writer thread. */
+        void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                writer.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void drain() {
+            List<Entry> batch = new ArrayList<>(MAX_BATCH);
+            List<String> lines = new ArrayList<>(MAX_BATCH + 1);
+            StringBuilder fileText = new StringBuilder();
+            long reportedDrops = 0;
+            while (true) {
+                try {
+                    Entry first = ring.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (closed) break;
+                        continue;
+                    }
+                    batch.add(first);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                ring.drainTo(batch, MAX_BATCH - 1);
+
+                long drops = dropped.sum();
+                if (drops > reportedDrops) {
+                    lines.add("[LOG] " + (drops - reportedDrops) + " messages dropped (buffer full)");
+                    fileText.append(STAMP.format(Instant.now())).append(" WARN  ").append(lines.get(0)).append('\n');
+                    reportedDrops = drops;
+                }
+                for (Entry e : batch) {
+                    String msg = format(e);
+                    lines.add(msg);
+                    fileText.append(STAMP.format(Instant.ofEpochMilli(e.time))).append(' ')
+                            .append(e.level.label).append(msg).append('\n');
+                }
+                writeFile(fileText);
+                publish(lines);
+                written.add(batch.size());
+                batch.clear();
+                lines.clear();
+                fileText.setLength(0);
+            }
+            if (file != null) {
+                file.close();
+            }
+        }
+
+        private static String format(Entry e) {
+            String msg = message(e);
+            if (e.thrown == null) return msg;
+            StringWriter trace = new StringWriter();
+            e.thrown.printStackTrace(new PrintWriter(trace));
+            return msg + '\n' + trace.toString().stripTrailing();
+        }
+
+        private static String message(Entry e) {
+            if (e.args == null || e.args.length == 0) return e.format;
+            try {
+                return String.format(e.format, e.args);
+            } catch (IllegalFormatException ex) {
+                return e.format + " " + Arrays.toString(e.args);
+            }
+        }
+
+        private void writeFile(CharSequence text) {
+            if (file == null) return;
+            try {
+                file.write(text);
+            } catch (IOException e) {
+                System.err.println("[LOG] Writing " + file.path + " failed, file logging disabled: " + e.getMessage());
+                file.close();
+                file = null;
+            }
+        }
+
+        /** Queue lines for the text area, scheduling a flush only if none is pending. */
+        private void publish(List<String> lines) {
+            if (area == null) return;
+            boolean schedule;
+            synchronized (pendingUi) {
+                pendingUi.addAll(lines);
+                while (pendingUi.size() > scrollbackLines) {
+                    pendingUi.removeFirst();
+                }
+                schedule = !uiFlushScheduled;
+                uiFlushScheduled = true;
+            }
+            if (schedule) {
+                SwingUtilities.invokeLater(this::flushToArea);
+            }
+        }
+
+        /** Runs on the EDT: append everything pending in one go, then trim old lines. */
+        private void flushToArea() {
+            StringBuilder sb = new StringBuilder();
+            synchronized (pendingUi) {
+                for (String line : pendingUi) {
+                    sb.append(line).append('\n');
+                }
+                pendingUi.clear();
+                uiFlushScheduled = false;
+            }
+            JTextArea target = area;
+            target.append(sb.toString());
+            // The text ends with '\n', so the last "line" is always empty
+            int excess = target.getLineCount() - 1 - scrollbackLines;
+            if (excess > 0) {
+                try {
+                    target.replaceRange(null, 0, target.getLineEndOffset(excess - 1));
+                } catch (BadLocationException ignored) {
+                    // offsets come from the same document on the same thread
+                }
+            }
+            target.setCaretPosition(target.getDocument().getLength());
+        }
+
+        /** Appends to a file, renaming it to file.1 (and older ones up to file.N) once it is full. */
+        private static final class RollingFile {
+            final Path path;
+            private final long maxBytes;
+            private final int keep;
+            private OutputStream out;
+            private long size;
+
+            RollingFile(Path path, long maxBytes, int keep) throws IOException {
+                this.path = path;
+                this.maxBytes = maxBytes;
+                this.keep = Math.max(0, keep);
+                open(StandardOpenOption.APPEND);
+            }
+
+            private void open(StandardOpenOption mode) throws IOException {
+                out = new BufferedOutputStream(Files.newOutputStream(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode), 64 * 1024);
+                size = Files.size(path);
+            }
+
+            void write(CharSequence text) throws IOException {
+                byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                if (maxBytes > 0 && size > 0 && size + bytes.length > maxBytes) {
+                    roll();
+                }
+                out.write(bytes);
+                out.flush();
+                size += bytes.length;
+            }
+
+            private void roll() throws IOException {
+                out.close();
+                if (keep == 0) {
+                    open(StandardOpenOption.TRUNCATE_EXISTING);
+                    return;
+                }
+                for (int i = keep - 1; i >= 1; i--) {
+                    Path older = Paths.get(path + "." + i);
+                    if (Files.exists(older)) {
+                        Files.move(older, Paths.get(path + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(path, Paths.get(path + "." + 1), StandardCopyOption.REPLACE_EXISTING);
+                open(StandardOpenOption.TRUNCATE_EXISTING);
+            }
+
+            void close() {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // nothing left to report to
+                }
+            }
         }
     }
 
-    /** Generate a fresh AES‐256 key for encrypting account passwords. */
-    private static void generateServerKey() throws Exception {
-        KeyGenerator kg = KeyGenerator.getInstance("AES");
-        kg.init(256);
-        serverKey = kg.generateKey();
+    /**
+     * Runs ClientHandlers with admission control.
+     *
+     * On JDK 21+ each connection gets a virtual thread and a semaphore caps how many
+     * run at once; on older JDKs a fixed pool of platform threads is used instead.
+     * Either way at most {@code maxConcurrent + backlog} connections are admitted;
+     * anything beyond that is answered with a "server busy" reply and closed.
+     */
+    static class ConnectionExecutor {
+        private static final int BUSY_REPLY_TIMEOUT_MS = 2000;
+
+        private final ExecutorService executor;
+        private final Semaphore running;      // null when the pool itself bounds concurrency
+        private final int admissionLimit;
+        private final AtomicInteger admitted = new AtomicInteger();
+        private final boolean virtual;
+        private final int maxConcurrent;
+        // Busy replies need a TLS handshake, so keep them off the accept loop.
+        private final ThreadPoolExecutor rejector = new ThreadPoolExecutor(
+                1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64));
+
+        ConnectionExecutor(int maxConcurrent, int backlog) {
+            this.maxConcurrent = maxConcurrent;
+            this.admissionLimit = maxConcurrent + backlog;
+            ExecutorService vt = newVirtualThreadExecutor();
+            if (vt != null) {
+                executor = vt;
+                running = new Semaphore(maxConcurrent);
+                virtual = true;
+            } else {
+                executor = new ThreadPoolExecutor(
+                        maxConcurrent, maxConcurrent, 60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(Math.max(1, backlog)));
+                ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+                running = null;
+                virtual = false;
+            }
+        }
+
+        /** Returns Executors.newVirtualThreadPerTaskExecutor() when the JDK has it. */
+        private static ExecutorService newVirtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        String describe() {
+            return (virtual ? "virtual threads" : "platform thread pool")
+                    + ", max " + maxConcurrent + " concurrent, " + admissionLimit + " admitted";
+        }
+
+        /** Admit the handler, or return false if the server is saturated. */
+        boolean submit(Runnable handler) {
+            if (admitted.incrementAndGet() > admissionLimit) {
+                admitted.decrementAndGet();
+                return false;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (running != null) {
+                            running.acquireUninterruptibly();
+                            try {
+                                handler.run();
+                            } finally {
+                                running.release();
+                            }
+                        } else {
+                            handler.run();
+                        }
+                    } finally {
+                        admitted.decrementAndGet();
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                admitted.decrementAndGet();
+                return false;
+            }
+        }
+
+        /** Send a "server busy" JSON reply and close the socket. */
+        void rejectBusy(SSLSocket sock) {
+            try {
+                rejector.execute(() -> replyBusy(sock));
+            } catch (RejectedExecutionException e) {
+                try {
+                    sock.close();
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private static void replyBusy(SSLSocket sock) {
+            try {
+                sock.setSoTimeout(BUSY_REPLY_TIMEOUT_MS);
+                writeResponse(new BufferedWriter(
+                        new OutputStreamWriter(sock.getOutputStream(), StandardCharsets.UTF_8)), Response.busy());
+            } catch (IOException ignored) {
+            } finally {
+                try {
+                    sock.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Non-blocking transport, chosen with TRANSPORT=nio. One thread accepts, a few
+     * event-loop threads run TLS (SSLEngine) and line framing for every connection, and
+     * a worker pool runs the requests, so the thread count stays fixed however many
+     * clients are connected.
+     *
+     * Network and plaintext buffers are direct and owned by the event loop; a connection
+     * only holds on to bytes between events (a partial TLS record, or output the socket
+     * would not take), so an idle connection costs little more than its SSLEngine.
+     */
+    static final class NioServer {
+        private final SSLContext ctx;
+        private final SSLParameters tls;
+        private final EventLoop[] loops;
+        private final ThreadPoolExecutor workers;
+        private final int maxConnections;
+        private final AtomicInteger open = new AtomicInteger();
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private ServerSocketChannel server;
+
+        NioServer(SSLContext ctx, int eventLoops, int workerThreads, int workerQueue, int maxConnections)
+                throws IOException {
+            this.ctx = ctx;
+            this.tls = tlsParameters(ctx);
+            this.maxConnections = maxConnections;
+            SSLSession probe = ctx.createSSLEngine().getSession();
+            this.loops = new EventLoop[Math.max(1, eventLoops)];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(i, probe.getPacketBufferSize(), probe.getApplicationBufferSize());
+            }
+            this.workers = newWorkerPool("nio-worker", workerThreads, workerQueue);
+        }
+
+        void bind(int port, int backlog) throws IOException {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port), backlog);
+        }
+
+        String describe() {
+            return "NIO, " + loops.length + " event loops, " + workers.getMaximumPoolSize()
+                    + " workers, max " + maxConnections + " connections";
+        }
+
+        String stats() {
+            return String.format("%d open, %d accepted, %d rejected, %d active workers, %d queued requests",
+                    open.get(), accepted.get(), rejected.get(), workers.getActiveCount(), workers.getQueue().size());
+        }
+
+        /** Accept connections until the channel is closed, spreading them over the event loops. */
+        void serve() throws IOException {
+            for (EventLoop loop : loops) {
+                Thread t = new Thread(loop, "nio-loop-" + loop.index);
+                t.setDaemon(true);
+                t.start();
+            }
+            int next = 0;
+            while (server.isOpen()) {
+                SocketChannel ch = server.accept();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                boolean admitted = open.incrementAndGet() <= maxConnections;
+                if (admitted) {
+                    accepted.incrementAndGet();
+                } else {
+                    open.decrementAndGet();
+                    rejected.incrementAndGet();
+                }
+                EventLoop loop = loops[next++ % loops.length];
+                if (next == loops.length) next = 0;
+                NioConnection conn = new NioConnection(this, loop, ch, admitted);
+                loop.execute(conn::register);
+            }
+        }
+    }
+
+    /** A selector thread plus the buffers it lends to whichever connection it is serving. */
+    static final class EventLoop implements Runnable {
+        final int index;
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Sized for one TLS record plus a partial one left over from the previous read.
+        final ByteBuffer netIn;
+        final ByteBuffer netOut;
+        final ByteBuffer appIn;
+        private volatile Thread thread;
+
+        EventLoop(int index, int packetSize, int appSize) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+            this.netIn = ByteBuffer.allocateDirect(packetSize * 2);
+            this.netOut = ByteBuffer.allocateDirect(packetSize);
+            this.appIn = ByteBuffer.allocateDirect(appSize);
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /** Run a task on this loop's thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ((NioConnection) key.attachment()).handle(key);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("[SERVER] Event loop %s error: %s", index, e.getMessage());
+                }
+            }
+        }
     }
 
-    /** Build SSLContext from a PKCS12 keystore (“keystore.p12” / password “cyber”). */
-    private static SSLContext createSSLContext() throws Exception {
-        String ksPath = "keystore.p12";
-        String ksPass = "cyber";
+    /**
+     * One client on the NIO transport. Everything touching the SSLEngine or the channel
+     * runs on the owning event loop; requests run on the worker pool through the
+     * connection's {@link RequestPipeline}, and their replies come back through {@link #send}.
+     */
+    static final class NioConnection {
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+        private static final int MAX_LINE_BYTES = 16 << 20;      // room for a MAX_BATCH_SIZE import
+        private static final int MAX_QUEUED_OUTPUT = 4 << 20;
+        private static final int REPLY_CHUNK_CHARS = 16 << 10;   // a streamed reply goes out in pieces this big
+
+        private final NioServer server;
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        private final boolean admitted;
+        // Created once the first byte shows whether the client speaks JSON or binary frames.
+        private RequestDispatcher dispatcher;
+        private RequestPipeline pipeline;
+        private volatile WireCounters wire;
+        private SelectionKey key;
+        private ByteBuffer pendingIn;           // TLS bytes received but not yet a full record
+        private ByteBuffer pendingOut;          // TLS bytes the socket has not accepted yet
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private byte[] frameBuf;                // binary connections: bytes of incomplete frames
+        private int frameLen;
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedOutput = new AtomicLong();
+        private boolean tasksRunning;
+        private boolean handshaken;
+        private final long openedMillis = System.currentTimeMillis();
+        private final long openedNanos = System.nanoTime();
+        private boolean closeAfterFlush;
+        private volatile boolean closed;
+
+        NioConnection(NioServer server, EventLoop loop, SocketChannel channel, boolean admitted) {
+            this.server = server;
+            this.loop = loop;
+            this.channel = channel;
+            this.admitted = admitted;
+            this.engine = server.ctx.createSSLEngine();
+            this.engine.setUseClientMode(false);
+            this.engine.setSSLParameters(server.tls);
+            if (!admitted) {
+                sendResponse(Response.busy());
+                closeAfterFlush = true;
+            }
+        }
+
+        /** Runs on the event loop. */
+        void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                engine.beginHandshake();
+                resume();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void handle(SelectionKey k) {
+            try {
+                if (k.isValid() && k.isWritable()) {
+                    if (!writePending()) return;
+                    k.interestOps(SelectionKey.OP_READ);
+                    resume();
+                }
+                if (k.isValid() && k.isReadable()) {
+                    onReadable();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void onReadable() throws IOException {
+            ByteBuffer in = takeInput();
+            int n = channel.read(in);
+            in.flip();
+            try {
+                if (n > 0) drive(in);
+            } finally {
+                stashInput(in);
+            }
+            if (n < 0) {
+                close();
+            }
+        }
+
+        /** Carry on after tasks finished or new output was queued. */
+        private void resume() throws IOException {
+            ByteBuffer in = takeInput();
+            in.flip();
+            try {
+                drive(in);
+            } finally {
+                stashInput(in);
+            }
+        }
+
+        private void resumeQuietly() {
+            try {
+                resume();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private ByteBuffer takeInput() {
+            ByteBuffer in = loop.netIn;
+            in.clear();
+            if (pendingIn != null) {
+                in.put(pendingIn);
+                pendingIn = null;
+            }
+            return in;
+        }
+
+        private void stashInput(ByteBuffer in) {
+            if (in.hasRemaining() && !closed) {
+                pendingIn = ByteBuffer.allocate(in.remaining()).put(in).flip();
+            }
+        }
+
+        /** Advance the handshake, decrypt whatever has arrived, and encrypt queued replies. */
+        private void drive(ByteBuffer in) throws IOException {
+            while (!closed && !tasksRunning) {
+                SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    return;
+                } else if (hs == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    if (!wrap(EMPTY)) return;
+                } else if (hs == SSLEngineResult.HandshakeStatus.NEED_UNWRAP
+                        || hs == SSLEngineResult.HandshakeStatus.NEED_UNWRAP_AGAIN) {
+                    if (!unwrap(in)) return;
+                } else if (in.hasRemaining() && unwrap(in)) {
+                    // Decrypted a record; go round again in case it started a renegotiation.
+                } else if (!flushOutbound()) {
+                    return;
+                }
+            }
+        }
+
+        /** Unwrap one record; false if more bytes are needed first. */
+        private boolean unwrap(ByteBuffer in) throws IOException {
+            SSLEngineResult.HandshakeStatus before = engine.getHandshakeStatus();
+            ByteBuffer app = loop.appIn;
+            app.clear();
+            SSLEngineResult r = engine.unwrap(in, app);
+            onHandshakeStep(r);
+            app.flip();
+            if (app.hasRemaining()) {
+                onPlaintext(app);
+            }
+            switch (r.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    return false;
+                case BUFFER_OVERFLOW:
+                    throw new SSLException("TLS record larger than the application buffer");
+                case CLOSED:
+                    close();
+                    return false;
+                default:
+                    return r.bytesConsumed() > 0 || r.bytesProduced() > 0 || engine.getHandshakeStatus() != before;
+            }
+        }
+
+        /** Wrap from src and write it out; false if the socket is backed up. */
+        private boolean wrap(ByteBuffer src) throws IOException {
+            if (pendingOut != null && !writePending()) {
+                return false;
+            }
+            ByteBuffer net = loop.netOut;
+            net.clear();
+            SSLEngineResult r = engine.wrap(src, net);
+            onHandshakeStep(r);
+            if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                throw new SSLException("TLS record larger than the packet buffer");
+            }
+            net.flip();
+            channel.write(net);
+            if (net.hasRemaining()) {
+                pendingOut = ByteBuffer.allocate(net.remaining()).put(net).flip();
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return false;
+            }
+            if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        private void onHandshakeStep(SSLEngineResult r) {
+            if (!handshaken && r.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+                handshaken = true;
+                handshakes.completed(engine.getSession(), openedMillis, openedNanos);
+            }
+        }
+
+        private boolean writePending() throws IOException {
+            channel.write(pendingOut);
+            if (pendingOut.hasRemaining()) {
+                return false;
+            }
+            pendingOut = null;
+            return true;
+        }
+
+        /**
+         * Encrypt and write queued replies. Returns true if the engine wants a handshake
+         * step first (e.g. a post-handshake message), false once done or backed up.
+         */
+        private boolean flushOutbound() throws IOException {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                int before = head.remaining();
+                boolean written = wrap(head);
+                int consumed = before - head.remaining();
+                releaseOutput(consumed);
+                if (!written) return false;
+                if (!head.hasRemaining()) {
+                    outbound.poll();
+                } else if (consumed == 0) {
+                    return engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+                }
+            }
+            if (closeAfterFlush && pendingOut == null) {
+                close();
+            }
+            return false;
+        }
+
+        private void releaseOutput(int bytes) {
+            if (bytes > 0 && queuedOutput.addAndGet(-bytes) < MAX_QUEUED_OUTPUT) {
+                synchronized (queuedOutput) {
+                    queuedOutput.notifyAll();
+                }
+            }
+        }
+
+        private void runDelegatedTasks() {
+            tasksRunning = true;
+            Runnable work = () -> {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                loop.execute(() -> {
+                    tasksRunning = false;
+                    resumeQuietly();
+                });
+            };
+            try {
+                server.workers.execute(work);
+            } catch (RejectedExecutionException e) {
+                work.run();
+            }
+        }
+
+        /** Split decrypted bytes into requests. Runs on the event loop. */
+        private void onPlaintext(ByteBuffer app) {
+            byte[] chunk = new byte[app.remaining()];
+            app.get(chunk);
+            if (closeAfterFlush) return;
+            int start = 0;
+            if (wire == null) {
+                if ((chunk[0] & 0xFF) == BinaryCodec.MAGIC) {
+                    dispatcher = new RequestDispatcher(new ChannelOutputStream());
+                    wire = binaryWire;
+                } else {
+                    dispatcher = new RequestDispatcher(new ChannelWriter());
+                    wire = jsonWire;
+                }
+                pipeline = new RequestPipeline(dispatcher, server.workers, () -> loop.execute(this::close));
+            }
+            wire.bytesIn.add(chunk.length);
+            if (wire == binaryWire) {
+                if (frameBuf == null) start = 1;        // skip the MAGIC byte
+                onFrameBytes(chunk, start);
+                return;
+            }
+            for (int i = 0; i < chunk.length && !closeAfterFlush; i++) {
+                if (chunk[i] == '\n') {
+                    line.write(chunk, start, i - start);
+                    start = i + 1;
+                    dispatchLine();
+                }
+            }
+            if (closeAfterFlush) return;
+            line.write(chunk, start, chunk.length - start);
+            if (line.size() > MAX_LINE_BYTES) {
+                refuse("Request too large");
+            }
+        }
+
+        private void dispatchLine() {
+            String text = line.toString(StandardCharsets.UTF_8);
+            line.reset();
+            if (text.isBlank()) return;
+            Request req;
+            try {
+                JsonReader reader = new JsonReader(new StringReader(text));
+                reader.setLenient(true);
+                req = RequestCodec.readRequest(reader);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                refuse("Malformed request: " + e.getMessage());
+                return;
+            }
+            submit(req);
+        }
+
+        /** Append to the frame buffer and dispatch every complete frame in it. */
+        private void onFrameBytes(byte[] chunk, int start) {
+            int n = chunk.length - start;
+            if (frameBuf == null) {
+                frameBuf = new byte[Math.max(256, n)];
+            } else if (frameLen + n > frameBuf.length) {
+                frameBuf = Arrays.copyOf(frameBuf, Math.max(frameBuf.length * 2, frameLen + n));
+            }
+            System.arraycopy(chunk, start, frameBuf, frameLen, n);
+            frameLen += n;
+
+            int pos = 0;
+            while (!closeAfterFlush && frameLen - pos >= 4) {
+                int length = ByteBuffer.wrap(frameBuf, pos, 4).getInt();
+                if (length < 0 || length > BinaryCodec.MAX_FRAME_BYTES) {
+                    refuse("Malformed request: bad frame length " + length);
+                    return;
+                }
+                if (frameLen - pos - 4 < length) break;
+                byte[] payload = Arrays.copyOfRange(frameBuf, pos + 4, pos + 4 + length);
+                pos += 4 + length;
+                Request req;
+                try {
+                    req = BinaryCodec.decodeRequest(payload);
+                } catch (IllegalArgumentException e) {
+                    refuse("Malformed request: " + e.getMessage());
+                    return;
+                }
+                submit(req);
+            }
+            System.arraycopy(frameBuf, pos, frameBuf, 0, frameLen - pos);
+            frameLen -= pos;
+        }
+
+        private void submit(Request req) {
+            if (!pipeline.submit(req)) {
+                Response busy = Response.busy();
+                busy.requestId = req.requestId;
+                sendResponse(busy);
+            }
+        }
+
+        /** Reply with an error and hang up once it is written, as the blocking transport does. */
+        private void refuse(String message) {
+            sendResponse(Response.failure(message));
+            closeAfterFlush = true;
+            line.reset();
+            frameLen = 0;
+        }
+
+        private void sendResponse(Response resp) {
+            try {
+                if (dispatcher != null) {
+                    dispatcher.write(resp);
+                } else {
+                    writeResponse(new ChannelWriter(), resp);
+                }
+            } catch (IOException e) {
+                loop.execute(this::close);
+            }
+        }
+
+        /**
+         * Queue encoded reply bytes and have the event loop encrypt them. A worker that
+         * gets too far ahead of a slow reader waits here rather than buffering without end.
+         */
+        private void send(ByteBuffer bytes) throws IOException {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            WireCounters w = wire;
+            if (w != null) w.bytesOut.add(bytes.remaining());
+            outbound.add(bytes);
+            long queued = queuedOutput.addAndGet(bytes.remaining());
+            loop.execute(this::resumeQuietly);
+            if (queued > MAX_QUEUED_OUTPUT && !loop.inLoop()) {
+                synchronized (queuedOutput) {
+                    while (queuedOutput.get() > MAX_QUEUED_OUTPUT && !closed) {
+                        try {
+                            queuedOutput.wait(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while sending");
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Runs on the event loop. */
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (!handshaken) {
+                handshakes.failed();
+            }
+            try {
+                engine.closeOutbound();
+                ByteBuffer net = loop.netOut;
+                net.clear();
+                engine.wrap(EMPTY, net);
+                net.flip();
+                channel.write(net);
+            } catch (IOException ignored) {}
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            outbound.clear();
+            synchronized (queuedOutput) {
+                queuedOutput.notifyAll();
+            }
+            if (pipeline != null) pipeline.shutdown();
+            if (dispatcher != null) dispatcher.close();
+            if (admitted) server.open.decrementAndGet();
+        }
+
+        /**
+         * Collects a reply's characters and hands them to the connection as UTF-8 every
+         * REPLY_CHUNK_CHARS and on flush, so a long streamed listing neither piles up in
+         * memory nor waits for its last row before the first bytes go out. Callers write
+         * a whole reply under the dispatcher's write lock, so chunks never interleave.
+         */
+        private final class ChannelWriter extends Writer {
+            private final StringBuilder buf = new StringBuilder();
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                buf.append(cbuf, off, len);
+                if (buf.length() >= REPLY_CHUNK_CHARS) sendBuffered(false);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                buf.append(str, off, off + len);
+                if (buf.length() >= REPLY_CHUNK_CHARS) sendBuffered(false);
+            }
+
+            @Override
+            public void write(int c) throws IOException {
+                buf.append((char) c);
+                if (buf.length() >= REPLY_CHUNK_CHARS) sendBuffered(false);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                sendBuffered(true);
+            }
+
+            /** Send what is buffered, keeping back a trailing high surrogate unless this is a flush. */
+            private void sendBuffered(boolean all) throws IOException {
+                int n = buf.length();
+                if (!all && n > 0 && Character.isHighSurrogate(buf.charAt(n - 1))) n--;
+                if (n == 0) return;
+                byte[] bytes = buf.substring(0, n).getBytes(StandardCharsets.UTF_8);
+                buf.delete(0, n);
+                send(ByteBuffer.wrap(bytes));
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }
+
+        /** Collects one binary frame; flush hands it to the connection. */
+        private final class ChannelOutputStream extends OutputStream {
+            private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+            @Override
+            public void write(int b) {
+                buf.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                buf.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (buf.size() == 0) return;
+                byte[] bytes = buf.toByteArray();
+                buf.reset();
+                send(ByteBuffer.wrap(bytes));
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Shared SQLite connections: a pool of read-only reader connections and a single
+     * writer connection (SQLite only ever allows one writer, so handing out more just
+     * moves the contention into file locks). WAL mode lets readers run alongside the writer.
+     *
+     * Borrowed connections are proxies; close() hands the connection back to the pool
+     * instead of closing the file, so handlers keep their try-with-resources blocks.
+     * Each physical connection also keeps its prepared statements keyed by SQL, so
+     * prepareStatement(sql) on a warm connection is a map lookup, and closing the
+     * returned statement only clears its parameters.
+     */
+    static class ConnectionPool {
+        private static final int STATEMENT_CACHE_SIZE = 32;
+
+        private final String url;
+        private final long waitTimeoutMs;
+        private final int readerCount;
+        private final BlockingQueue<Slot> readers;
+        private final BlockingQueue<Slot> writers = new ArrayBlockingQueue<>(1);
+
+        private final AtomicInteger readersInUse = new AtomicInteger();
+        private final AtomicInteger writersInUse = new AtomicInteger();
+        private final AtomicLong borrows = new AtomicLong();
+        private final AtomicLong waits = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong statementHits = new AtomicLong();
+        private final AtomicLong statementMisses = new AtomicLong();
+
+        /** A physical connection plus its statement cache; only touched by the current borrower. */
+        private static final class Slot {
+            final Connection physical;
+            final Map<String, PreparedStatement> statements =
+                    new LinkedHashMap<>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                            if (size() <= STATEMENT_CACHE_SIZE) return false;
+                            try {
+                                eldest.getValue().close();
+                            } catch (SQLException ignored) {}
+                            return true;
+                        }
+                    };
+
+            Slot(Connection physical) {
+                this.physical = physical;
+            }
+        }
+
+        ConnectionPool(String url, int readerCount, long waitTimeoutMs) throws SQLException {
+            this.url = url;
+            this.readerCount = Math.max(1, readerCount);
+            this.waitTimeoutMs = waitTimeoutMs;
+            this.readers = new ArrayBlockingQueue<>(this.readerCount);
+            writers.add(new Slot(openWriter()));
+            for (int i = 0; i < this.readerCount; i++) {
+                readers.add(new Slot(openReader()));
+            }
+        }
+
+        private Connection openWriter() throws SQLException {
+            Connection c = DriverManager.getConnection(url);
+            try (Statement st = c.createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL");
+                st.execute("PRAGMA synchronous=NORMAL");
+                st.execute("PRAGMA busy_timeout=" + waitTimeoutMs);
+            }
+            return c;
+        }
+
+        private Connection openReader() throws SQLException {
+            Connection c = DriverManager.getConnection(url);
+            try (Statement st = c.createStatement()) {
+                st.execute("PRAGMA query_only=ON");
+                st.execute("PRAGMA busy_timeout=" + waitTimeoutMs);
+            }
+            return c;
+        }
+
+        /** Borrow a read-only connection. */
+        Connection reader() throws SQLException {
+            return borrow(readers, readersInUse, false);
+        }
+
+        /** Borrow the writer connection; callers hold it exclusively until close(). */
+        Connection writer() throws SQLException {
+            return borrow(writers, writersInUse, true);
+        }
+
+        private Connection borrow(BlockingQueue<Slot> queue, AtomicInteger inUse, boolean writer)
+                throws SQLException {
+            borrows.incrementAndGet();
+            Slot slot = queue.poll();
+            if (slot == null) {
+                waits.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    slot = queue.poll(waitTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a database connection");
+                } finally {
+                    waitNanos.addAndGet(System.nanoTime() - start);
+                }
+                if (slot == null) {
+                    timeouts.incrementAndGet();
+                    throw new SQLException("Timed out waiting for a database connection");
+                }
+            }
+            if (slot.physical.isClosed()) {
+                slot = new Slot(writer ? openWriter() : openReader());
+            }
+            inUse.incrementAndGet();
+            return lease(slot, queue, inUse);
+        }
+
+        private Connection lease(Slot slot, BlockingQueue<Slot> queue, AtomicInteger inUse) {
+            boolean[] returned = { false };
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!returned[0]) {
+                                    returned[0] = true;
+                                    release(slot, queue, inUse);
+                                }
+                                return null;
+                            case "isClosed":
+                                return returned[0] || slot.physical.isClosed();
+                            default:
+                                if (returned[0]) {
+                                    throw new SQLException("Connection already returned to the pool");
+                                }
+                                if (method.getName().equals("prepareStatement")
+                                        && args.length == 1 && args[0] instanceof String) {
+                                    return cachedStatement(slot, (String) args[0]);
+                                }
+                                try {
+                                    return method.invoke(slot.physical, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                        }
+                    });
+        }
+
+        /** Prepared statement from the slot's cache; close() on it just clears parameters. */
+        private PreparedStatement cachedStatement(Slot slot, String sql) throws SQLException {
+            PreparedStatement ps = slot.statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                statementMisses.incrementAndGet();
+                ps = slot.physical.prepareStatement(sql);
+                slot.statements.put(sql, ps);
+            } else {
+                statementHits.incrementAndGet();
+            }
+            PreparedStatement target = ps;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close")) {
+                            target.clearParameters();
+                            return null;
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        private void release(Slot slot, BlockingQueue<Slot> queue, AtomicInteger inUse) {
+            Connection physical = slot.physical;
+            try {
+                if (!physical.isClosed() && !physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                try {
+                    physical.close();
+                } catch (SQLException ignored) {}
+            }
+            inUse.decrementAndGet();
+            queue.offer(slot);
+        }
+
+        String stats() {
+            long w = waits.get();
+            long hits = statementHits.get();
+            long lookups = hits + statementMisses.get();
+            return String.format(
+                    "readers %d/%d in use, writer %d/1 in use, %d borrows, %d waits (avg %.2f ms), %d timeouts,"
+                            + " statement cache %.1f%% hits of %d",
+                    readersInUse.get(), readerCount, writersInUse.get(), borrows.get(),
+                    w, w == 0 ? 0.0 : waitNanos.get() / 1e6 / w, timeouts.get(),
+                    lookups == 0 ? 0.0 : 100.0 * hits / lookups, lookups);
+        }
+    }
+
+    /** Account summary row, as listed to clients (never includes the password). */
+    record AccountSummary(int id, String compte, String accountUsername, String notes) {}
+
+    /** Receives account rows as they are read from the database. */
+    interface AccountSink {
+        void accept(AccountSummary account) throws IOException;
+    }
+
+    /** Where a page stopped; lastId (and lastScore for searches) is the cursor for the next one. */
+    record Page(int count, boolean hasMore, int lastId, double lastScore) {}
+
+    /** An account password as stored: Base64 ciphertext and Base64 GCM nonce (null for legacy rows). */
+    record SealedPassword(String ciphertext, String nonce) {}
+
+    /** One account of a createAccounts batch, as sent by the client. */
+    record AccountInput(String compte, String accountUsername, String password, String notes) {}
+
+    /** An account ready to insert: sanitized fields and the sealed password. */
+    record NewAccount(String compte, String accountUsername, SealedPassword password, String notes) {}
+
+    /** Outcome of one item of a batch; index is its position in the request. */
+    record ItemResult(int index, Integer id, boolean success, String message, String password) {}
+
+    /**
+     * Account changes after some change sequence number, oldest first: rows created or
+     * edited, ids deleted, and the sequence number to ask from next time.
+     */
+    record ChangeSet(List<AccountSummary> changed, List<Integer> deleted, int changeSeq, boolean hasMore,
+                     boolean fullResync) {}
+
+    /** A user's stored password hash, its salt, and the KDF parameters it was computed with. */
+    record UserCredentials(String passwordHash, String salt, String algorithm, int iterations) {}
+
+    /**
+     * Owns every SQL statement the handlers run. Statements are prepared through
+     * pooled connections, so repeat calls hit the per-connection statement cache and
+     * only bind parameters and execute.
+     */
+    static class VaultRepository {
+        private static final String SELECT_USER =
+                "SELECT username FROM users WHERE username = ?";
+        private static final String INSERT_USER =
+                "INSERT INTO users (username, password_hash, salt, hash_algorithm, hash_iterations) VALUES (?, ?, ?, ?, ?)";
+        private static final String SELECT_CREDENTIALS =
+                "SELECT password_hash, salt, hash_algorithm, hash_iterations FROM users WHERE username = ?";
+        private static final String UPDATE_CREDENTIALS =
+                "UPDATE users SET password_hash=?, salt=?, hash_algorithm=?, hash_iterations=? WHERE username=?";
+        // LIMIT -1 means no limit in SQLite.
+        private static final String SELECT_ACCOUNTS =
+                "SELECT id, compte, account_username, notes FROM accounts WHERE username = ? AND id > ? ORDER BY id LIMIT ?";
+        private static final String SELECT_PASSWORD =
+                "SELECT encrypted_password, password_nonce FROM accounts WHERE id = ? AND username = ?";
+        private static final String INSERT_ACCOUNT =
+                "INSERT INTO accounts (username, compte, account_username, encrypted_password, password_nonce, notes) VALUES (?, ?, ?, ?, ?, ?)";
+        private static final String UPDATE_ACCOUNT =
+                "UPDATE accounts SET compte=?, account_username=?, encrypted_password=?, password_nonce=?, notes=? WHERE id=? AND username=?";
+        private static final String DELETE_ACCOUNT =
+                "DELETE FROM accounts WHERE id=? AND username=?";
+        // change_seq is assigned by triggers from one counter, so it orders every edit and
+        // deletion; deletions leave a tombstone row behind for clients that cached the account.
+        private static final String SELECT_CHANGES = """
+                SELECT id, compte, account_username, notes, change_seq, 0 AS deleted
+                FROM accounts WHERE username = ? AND change_seq > ?
+                UNION ALL
+                SELECT id, NULL, NULL, NULL, change_seq, 1
+                FROM account_tombstones WHERE username = ? AND change_seq > ?
+                ORDER BY change_seq LIMIT ?
+                """;
+        private static final String SELECT_CHANGE_SEQ =
+                "SELECT seq, pruned_seq FROM sync_counter WHERE id = 1";
+        // pruned_seq is the newest change whose tombstone is gone; a client behind it may
+        // still hold an account deleted since, so it has to start again from 0.
+        private static final String RAISE_PRUNED_SEQ = """
+                UPDATE sync_counter SET pruned_seq = MAX(pruned_seq,
+                  COALESCE((SELECT MAX(change_seq) FROM account_tombstones WHERE deleted_at < ?), 0))
+                WHERE id = 1
+                """;
+        private static final String PRUNE_TOMBSTONES =
+                "DELETE FROM account_tombstones WHERE deleted_at < ?";
+        // The ids go in as one JSON array so every batch size shares one cached statement.
+        private static final String SELECT_PASSWORDS =
+                "SELECT id, encrypted_password, password_nonce FROM accounts "
+                + "WHERE username = ? AND id IN (SELECT value FROM json_each(?))";
+        // The owner is matched inside FTS as well so the index intersects posting lists
+        // instead of ranking every tenant's rows; the join re-checks it exactly.
+        // bm25 weights: owner 0 (filter only), account name 10, account username 5, notes 1.
+        // Pages are keyed on (score, id): bm25 is lower for better matches.
+        private static final String SEARCH_ACCOUNTS = """
+                SELECT id, compte, account_username, notes, score FROM (
+                  SELECT a.id, a.compte, a.account_username, a.notes,
+                         bm25(accounts_fts, 0.0, 10.0, 5.0, 1.0) AS score
+                  FROM accounts_fts f JOIN accounts a ON a.id = f.rowid
+                  WHERE accounts_fts MATCH ? AND a.username = ?
+                )
+                WHERE score > ? OR (score = ? AND id > ?)
+                ORDER BY score, id LIMIT ?
+                """;
+
+        private final ConnectionPool pool;
+
+        VaultRepository(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        /** Insert a user; returns false if the username is taken. */
+        boolean createUser(String username, UserCredentials creds) throws SQLException {
+            try (Connection conn = pool.writer()) {
+                try (PreparedStatement ps = conn.prepareStatement(SELECT_USER)) {
+                    ps.setString(1, username);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) return false;
+                    }
+                }
+                try (PreparedStatement ps = conn.prepareStatement(INSERT_USER)) {
+                    ps.setString(1, username);
+                    ps.setString(2, creds.passwordHash());
+                    ps.setString(3, creds.salt());
+                    ps.setString(4, creds.algorithm());
+                    ps.setInt(5, creds.iterations());
+                    ps.executeUpdate();
+                }
+                return true;
+            }
+        }
+
+        /** Replace a user's hash, e.g. to re-hash with stronger parameters after a login. */
+        void updateCredentials(String username, UserCredentials creds) throws SQLException {
+            try (Connection conn = pool.writer();
+                 PreparedStatement ps = conn.prepareStatement(UPDATE_CREDENTIALS)) {
+                ps.setString(1, creds.passwordHash());
+                ps.setString(2, creds.salt());
+                ps.setString(3, creds.algorithm());
+                ps.setInt(4, creds.iterations());
+                ps.setString(5, username);
+                ps.executeUpdate();
+            }
+        }
+
+        /** Stored credentials for a user, or null if there is no such user. */
+        UserCredentials findCredentials(String username) throws SQLException {
+            try (Connection conn = pool.reader();
+                 PreparedStatement ps = conn.prepareStatement(SELECT_CREDENTIALS)) {
+                ps.setString(1, username);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return new UserCredentials(
+                            rs.getString("password_hash"),
+                            rs.getString("salt"),
+                            rs.getString("hash_algorithm"),
+                            rs.getInt("hash_iterations"));
+                }
+            }
+        }
+
+        /**
+         * Stream the user's accounts in id order, starting after {@code afterId}.
+         * {@code limit <= 0} means no limit.
+         */
+        Page listAccounts(String user, int afterId, int limit, AccountSink sink)
+                throws SQLException, IOException {
+            try (Connection conn = pool.reader();
+                 PreparedStatement ps = conn.prepareStatement(SELECT_ACCOUNTS)) {
+                ps.setString(1, user);
+                ps.setInt(2, afterId);
+                ps.setInt(3, limit > 0 ? limit + 1 : -1);
+                return readPage(ps, limit, false, sink);
+            }
+        }
+
+        /**
+         * Ranked full-text search: every word of the term must prefix-match a word in the
+         * account name, account username or notes. A term with no words lists everything.
+         * Pages continue after the ({@code afterScore}, {@code afterId}) cursor.
+         */
+        Page searchAccounts(String user, String term, double afterScore, int afterId, int limit,
+                            AccountSink sink) throws SQLException, IOException {
+            String match = matchExpression(user, term);
+            if (match == null) {
+                return listAccounts(user, afterId, limit, sink);
+            }
+            try (Connection conn = pool.reader();
+                 PreparedStatement ps = conn.prepareStatement(SEARCH_ACCOUNTS)) {
+                ps.setString(1, match);
+                ps.setString(2, user);
+                ps.setDouble(3, afterScore);
+                ps.setDouble(4, afterScore);
+                ps.setInt(5, afterId);
+                ps.setInt(6, limit > 0 ? limit + 1 : -1);
+                return readPage(ps, limit, true, sink);
+            }
+        }
+
+        /** FTS5 query for the term, or null if it contains no searchable words. */
+        static String matchExpression(String user, String term) {
+            StringBuilder words = new StringBuilder();
+            for (String w : term.split("[^\\p{L}\\p{N}]+")) {
+                if (w.isEmpty()) continue;
+                if (words.length() > 0) words.append(' ');
+                words.append(quote(w)).append('*');
+            }
+            if (words.length() == 0) return null;
+            return "{compte account_username notes} : (" + words + ") AND username : " + quote(user);
+        }
+
+        private static String quote(String s) {
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+
+        /** Encrypted password of one of the user's accounts, or null if not found. */
+        SealedPassword findEncryptedPassword(String user, int accountId) throws SQLException {
+            try (Connection conn = pool.reader();
+                 PreparedStatement ps = conn.prepareStatement(SELECT_PASSWORD)) {
+                ps.setInt(1, accountId);
+                ps.setString(2, user);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return new SealedPassword(rs.getString("encrypted_password"), rs.getString("password_nonce"));
+                }
+            }
+        }
+
+        void insertAccount(String user, String compte, String acctUser, SealedPassword encPwd, String notes)
+                throws SQLException {
+            try (Connection conn = pool.writer();
+                 PreparedStatement ps = conn.prepareStatement(INSERT_ACCOUNT)) {
+                ps.setString(1, user);
+                ps.setString(2, compte);
+                ps.setString(3, acctUser);
+                ps.setString(4, encPwd.ciphertext());
+                ps.setString(5, encPwd.nonce());
+                ps.setString(6, notes);
+                ps.executeUpdate();
+            }
+        }
+
+        /** Returns true if a row owned by the user was updated. */
+        boolean updateAccount(String user, int id, String compte, String acctUser, SealedPassword encPwd,
+                              String notes) throws SQLException {
+            try (Connection conn = pool.writer();
+                 PreparedStatement ps = conn.prepareStatement(UPDATE_ACCOUNT)) {
+                ps.setString(1, compte);
+                ps.setString(2, acctUser);
+                ps.setString(3, encPwd.ciphertext());
+                ps.setString(4, encPwd.nonce());
+                ps.setString(5, notes);
+                ps.setInt(6, id);
+                ps.setString(7, user);
+                return ps.executeUpdate() > 0;
+            }
+        }
+
+        /** Returns true if a row owned by the user was deleted. */
+        boolean deleteAccount(String user, int id) throws SQLException {
+            try (Connection conn = pool.writer();
+                 PreparedStatement ps = conn.prepareStatement(DELETE_ACCOUNT)) {
+                ps.setInt(1, id);
+                ps.setString(2, user);
+                return ps.executeUpdate() > 0;
+            }
+        }
+
+        /**
+         * Insert all rows in one transaction with one prepared statement; element i of the
+         * result is the id of rows[i]. The rows are stepped one by one rather than batched
+         * because the SQLite driver only reports the last generated key of a batch.
+         */
+        int[] insertAccounts(String user, List<NewAccount> rows) throws SQLException {
+            int[] ids = new int[rows.size()];
+            try (Connection conn = pool.writer()) {
+                inTransaction(conn, () -> {
+                    try (PreparedStatement ps = conn.prepareStatement(INSERT_ACCOUNT, Statement.RETURN_GENERATED_KEYS)) {
+                        for (int i = 0; i < ids.length; i++) {
+                            NewAccount a = rows.get(i);
+                            ps.setString(1, user);
+                            ps.setString(2, a.compte());
+                            ps.setString(3, a.accountUsername());
+                            ps.setString(4, a.password().ciphertext());
+                            ps.setString(5, a.password().nonce());
+                            ps.setString(6, a.notes());
+                            ps.executeUpdate();
+                            try (ResultSet keys = ps.getGeneratedKeys()) {
+                                if (!keys.next()) throw new SQLException("No id generated for account " + i);
+                                ids[i] = keys.getInt(1);
+                            }
+                        }
+                    }
+                });
+            }
+            return ids;
+        }
+
+        /** Delete in one transaction; element i is true if ids[i] was the user's and is gone. */
+        boolean[] deleteAccounts(String user, List<Integer> ids) throws SQLException {
+            boolean[] deleted = new boolean[ids.size()];
+            try (Connection conn = pool.writer()) {
+                inTransaction(conn, () -> {
+                    try (PreparedStatement ps = conn.prepareStatement(DELETE_ACCOUNT)) {
+                        for (int id : ids) {
+                            ps.setInt(1, id);
+                            ps.setString(2, user);
+                            ps.addBatch();
+                        }
+                        int[] counts = ps.executeBatch();
+                        for (int i = 0; i < counts.length; i++) {
+                            deleted[i] = counts[i] > 0;
+                        }
+                    }
+                });
+            }
+            return deleted;
+        }
+
+        /** Sealed passwords for whichever of the ids the user owns, in one query. */
+        Map<Integer, SealedPassword> findEncryptedPasswords(String user, List<Integer> ids) throws SQLException {
+            Map<Integer, SealedPassword> found = new HashMap<>();
+            try (Connection conn = pool.reader();
+                 PreparedStatement ps = conn.prepareStatement(SELECT_PASSWORDS)) {
+                ps.setString(1, user);
+                ps.setString(2, ids.toString());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        found.put(rs.getInt("id"),
+                                new SealedPassword(rs.getString("encrypted_password"), rs.getString("password_nonce")));
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Up to {@code limit} changes to the user's accounts after {@code since}. With
+         * nothing new, changeSeq is the current counter, so a client whose number is
+         * ahead of it knows the database was replaced and must start again from 0. So
+         * must a client whose number is behind pruned tombstones: it gets fullResync.
+         */
+        ChangeSet changesSince(String user, int since, int limit) throws SQLException {
+            List<AccountSummary> changed = new ArrayList<>();
+            List<Integer> deleted = new ArrayList<>();
+            try (Connection conn = pool.reader()) {
+                int current, pruned;
+                // Read first: anything committed after this shows up in the rows below.
+                try (PreparedStatement ps = conn.prepareStatement(SELECT_CHANGE_SEQ);
+                     ResultSet rs = ps.executeQuery()) {
+                    boolean found = rs.next();
+                    current = found ? rs.getInt(1) : 0;
+                    pruned = found ? rs.getInt(2) : 0;
+                }
+                if (since > 0 && since < pruned) {
+                    return new ChangeSet(changed, deleted, current, false, true);
+                }
+                try (PreparedStatement ps = conn.prepareStatement(SELECT_CHANGES)) {
+                    ps.setString(1, user);
+                    ps.setInt(2, since);
+                    ps.setString(3, user);
+                    ps.setInt(4, since);
+                    ps.setInt(5, limit + 1);
+                    int count = 0, lastSeq = current;
+                    boolean hasMore = false;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            if (count == limit) {
+                                hasMore = true;
+                                break;
+                            }
+                            count++;
+                            lastSeq = rs.getInt("change_seq");
+                            if (rs.getInt("deleted") != 0) {
+                                deleted.add(rs.getInt("id"));
+                            } else {
+                                changed.add(new AccountSummary(rs.getInt("id"), rs.getString("compte"),
+                                        rs.getString("account_username"), rs.getString("notes")));
+                            }
+                        }
+                    }
+                    // A complete answer covers everything up to the counter read above.
+                    return new ChangeSet(changed, deleted, hasMore ? lastSeq : Math.max(lastSeq, current), hasMore, false);
+                }
+            }
+        }
+
+        /**
+         * Drop tombstones for deletions made before {@code cutoffEpochSec}, first raising
+         * the watermark past them so clients that missed one know to reload. Returns how
+         * many were removed.
+         */
+        int pruneTombstones(long cutoffEpochSec) throws SQLException {
+            int[] removed = new int[1];
+            try (Connection conn = pool.writer()) {
+                inTransaction(conn, () -> {
+                    try (PreparedStatement raise = conn.prepareStatement(RAISE_PRUNED_SEQ);
+                         PreparedStatement prune = conn.prepareStatement(PRUNE_TOMBSTONES)) {
+                        raise.setLong(1, cutoffEpochSec);
+                        raise.executeUpdate();
+                        prune.setLong(1, cutoffEpochSec);
+                        removed[0] = prune.executeUpdate();
+                    }
+                });
+            }
+            return removed[0];
+        }
+
+        private interface SqlWork {
+            void run() throws SQLException;
+        }
+
+        private static void inTransaction(Connection conn, SqlWork work) throws SQLException {
+            conn.setAutoCommit(false);
+            try {
+                work.run();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+
+        /**
+         * EXPLAIN QUERY PLAN for the listing, update and delete statements, by name, to
+         * confirm each is served from an index (see {@link #usesIndex}).
+         */
+        Map<String, String> explainPlans() throws SQLException {
+            Map<String, String> plans = new LinkedHashMap<>();
+            try (Connection conn = pool.reader()) {
+                plans.put("Account listing", explain(conn, SELECT_ACCOUNTS));
+                plans.put("Account update", explain(conn, UPDATE_ACCOUNT));
+                plans.put("Account delete", explain(conn, DELETE_ACCOUNT));
+            }
+            return plans;
+        }
+
+        /** Parameters are left unbound (NULL); the plan does not depend on their values. */
+        private static String explain(Connection conn, String sql) throws SQLException {
+            StringBuilder plan = new StringBuilder();
+            try (PreparedStatement ps = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (plan.length() > 0) plan.append("; ");
+                    plan.append(rs.getString("detail"));
+                }
+            }
+            return plan.toString();
+        }
+
+        /**
+         * True if every step of the plan is an index lookup: "SEARCH ... USING [COVERING]
+         * INDEX" or "USING INTEGER PRIMARY KEY". A SCAN or a temporary b-tree for sorting
+         * means the statement slows down as the table grows.
+         */
+        static boolean usesIndex(String plan) {
+            for (String step : plan.split("; ")) {
+                if (!step.startsWith("SEARCH ") || !(step.contains(" USING INDEX ")
+                        || step.contains(" USING COVERING INDEX ") || step.contains(" USING INTEGER PRIMARY KEY "))) {
+                    return false;
+                }
+            }
+            return !plan.isEmpty();
+        }
+
+        /** Feed up to {@code limit} rows to the sink; one extra row is read only to set hasMore. */
+        private static Page readPage(PreparedStatement ps, int limit, boolean ranked, AccountSink sink)
+                throws SQLException, IOException {
+            int count = 0;
+            int lastId = 0;
+            double lastScore = 0;
+            boolean hasMore = false;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (limit > 0 && count == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    lastId = rs.getInt("id");
+                    if (ranked) lastScore = rs.getDouble("score");
+                    sink.accept(new AccountSummary(
+                            lastId,
+                            rs.getString("compte"),
+                            rs.getString("account_username"),
+                            rs.getString("notes")));
+                    count++;
+                }
+            }
+            return new Page(count, hasMore, lastId, lastScore);
+        }
+    }
+
+    /**
+     * Logged-in sessions with idle and absolute expiry and a hard cap on their number.
+     *
+     * Sessions live in a concurrent map, so the lookup every authenticated request makes
+     * takes no lock: it only slides the session's idle deadline forward. Expired sessions
+     * are removed by a hashed timer wheel advanced once a second: each session sits in the
+     * slot of its deadline as of when it was filed, and when that slot comes round it is
+     * either removed or, if it was used in the meantime, filed again under its new
+     * deadline. Lookups also check the deadlines, so expiry is exact whatever the sweep
+     * granularity. When the cap is reached the session with the earliest deadline in the
+     * next non-empty slot is evicted, which approximates least recently used. The wheel
+     * is guarded by the store's monitor; only login, logout and the sweeper take it.
+     */
+    static final class SessionStore {
+        private static final int WHEEL_SLOTS = 512;
+        private static final long TICK_MS = 1000;
+
+        private static final class Session {
+            final String token;
+            final String user;
+            final long expiresAt;      // absolute deadline
+            volatile long lastAccess;
+            int slot;                  // wheel slot it is filed in; guarded by the store
+
+            Session(String token, String user, long now, long absoluteTtlMs) {
+                this.token = token;
+                this.user = user;
+                this.expiresAt = now + absoluteTtlMs;
+                this.lastAccess = now;
+            }
+        }
+
+        private final long idleTtlMs;
+        private final long absoluteTtlMs;
+        private final int maxSessions;
+        private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>(256);
+        // Per-slot sets, so a session that ends early leaves its slot at once.
+        private final List<Set<Session>> wheel = new ArrayList<>(WHEEL_SLOTS);
+        private long sweptTick;
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder expirations = new LongAdder();
+
+        SessionStore(long idleTtlMs, long absoluteTtlMs, int maxSessions) {
+            this.idleTtlMs = idleTtlMs;
+            this.absoluteTtlMs = absoluteTtlMs;
+            this.maxSessions = Math.max(1, maxSessions);
+            for (int i = 0; i < WHEEL_SLOTS; i++) {
+                wheel.add(new LinkedHashSet<>());
+            }
+            sweptTick = System.currentTimeMillis() / TICK_MS;
+            ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "session-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleAtFixedRate(this::sweep, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /** Start a session for the user under the given token. */
+        synchronized void register(String token, String user) {
+            long now = System.currentTimeMillis();
+            while (sessions.size() >= maxSessions && evictOne()) {
+                evictions.increment();
+            }
+            Session s = new Session(token, user, now, absoluteTtlMs);
+            sessions.put(token, s);
+            file(s);
+        }
+
+        /** The session's user, renewing its idle deadline; null if unknown or expired. */
+        String userFor(String token) {
+            if (token == null) return null;
+            Session s = sessions.get(token);
+            if (s == null) return null;
+            long now = System.currentTimeMillis();
+            if (now >= deadline(s)) {
+                // Its slot is already due, so the sweeper drops it from the wheel shortly
+                if (sessions.remove(token, s)) expirations.increment();
+                return null;
+            }
+            s.lastAccess = now;
+            return s.user;
+        }
+
+        /** End a session; returns false if there was no such session. */
+        synchronized boolean remove(String token) {
+            Session s = sessions.remove(token);
+            if (s == null) return false;
+            unfile(s);
+            return true;
+        }
+
+        private long deadline(Session s) {
+            return Math.min(s.lastAccess + idleTtlMs, s.expiresAt);
+        }
+
+        private void file(Session s) {
+            long tick = Math.max(deadline(s) / TICK_MS, sweptTick + 1);
+            s.slot = (int) (tick % WHEEL_SLOTS);
+            wheel.get(s.slot).add(s);
+        }
+
+        private void unfile(Session s) {
+            wheel.get(s.slot).remove(s);
+        }
+
+        /**
+         * Drop the session with the earliest deadline in the next non-empty slot (guarded
+         * by this). Sessions used since they were filed look older than they are, so this
+         * is only roughly the least recently used one. False if the wheel is empty.
+         */
+        private boolean evictOne() {
+            for (long tick = sweptTick + 1; tick <= sweptTick + WHEEL_SLOTS; tick++) {
+                Set<Session> slot = wheel.get((int) (tick % WHEEL_SLOTS));
+                Session oldest = null;
+                for (Iterator<Session> it = slot.iterator(); it.hasNext(); ) {
+                    Session s = it.next();
+                    if (sessions.get(s.token) != s) {
+                        it.remove();   // a lookup already expired it
+                    } else if (oldest == null || deadline(s) < deadline(oldest)) {
+                        oldest = s;
+                    }
+                }
+                if (oldest != null) {
+                    slot.remove(oldest);
+                    sessions.remove(oldest.token, oldest);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Advance the wheel to the current tick, expiring or re-filing what each slot holds. */
+        private synchronized void sweep() {
+            long now = System.currentTimeMillis();
+            long nowTick = now / TICK_MS;
+            // After a long pause one pass over the whole wheel covers every slot.
+            long from = Math.max(sweptTick + 1, nowTick - WHEEL_SLOTS + 1);
+            for (long tick = from; tick <= nowTick; tick++) {
+                sweptTick = tick;
+                Set<Session> slot = wheel.get((int) (tick % WHEEL_SLOTS));
+                if (slot.isEmpty()) continue;
+                List<Session> due = new ArrayList<>(slot);
+                slot.clear();
+                for (Session s : due) {
+                    if (sessions.get(s.token) != s) continue;   // a lookup already expired it
+                    if (now >= deadline(s)) {
+                        if (sessions.remove(s.token, s)) expirations.increment();
+                    } else {
+                        file(s);
+                    }
+                }
+            }
+            sweptTick = nowTick;
+        }
+
+        String stats() {
+            return sessions.size() + " active (cap " + maxSessions + "), "
+                    + expirations.sum() + " expired, " + evictions.sum() + " evicted";
+        }
+    }
+
+    // Runs pipelined (requestId-tagged) requests for the blocking transport.
+    private static final ThreadPoolExecutor pipelineWorkers = newWorkerPool("pipeline-worker", PIPELINE_WORKERS, 1024);
+
+    private static final SessionStore sessions = new SessionStore(
+            SESSION_IDLE_TTL_SEC * 1000L, SESSION_MAX_TTL_SEC * 1000L, MAX_SESSIONS);
+
+    /** Human-readable snapshot of the server's runtime metrics. */
+    static String metricsReport() {
+        StringBuilder sb = new StringBuilder("[METRICS]");
+        sb.append("\n  db pool: ").append(db == null ? "not started" : db.stats());
+        if (nioServer != null) {
+            sb.append("\n  connections: ").append(nioServer.stats());
+        }
+        sb.append("\n  tls handshakes: ").append(handshakes.stats());
+        sb.append("\n  wire ").append(jsonWire.stats());
+        sb.append("\n  wire ").append(binaryWire.stats());
+        sb.append("\n  compression: ").append(ReplyCompressor.stats());
+        sb.append("\n  sessions: ").append(sessions.stats());
+        sb.append("\n  password hashing: ").append(hasher == null ? "not started" : hasher.stats());
+        sb.append("\n  log: ").append(LOG.stats());
+        return sb.toString();
+    }
+
+    /** Prune sync tombstones past TOMBSTONE_RETENTION_DAYS now and every TOMBSTONE_PRUNE_INTERVAL_MS. */
+    private static void startTombstonePruner() {
+        ScheduledExecutorService pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tombstone-pruner");
+            t.setDaemon(true);
+            return t;
+        });
+        pruner.scheduleWithFixedDelay(() -> {
+            long cutoff = System.currentTimeMillis() / 1000 - TimeUnit.DAYS.toSeconds(TOMBSTONE_RETENTION_DAYS);
+            try {
+                int removed = repo.pruneTombstones(cutoff);
+                if (removed > 0) {
+                    LOG.info("[SERVER] Pruned %d deletion records older than %d days", removed, TOMBSTONE_RETENTION_DAYS);
+                }
+            } catch (SQLException e) {
+                LOG.warn("[SERVER] Could not prune deletion records: %s", e.getMessage());
+            }
+        }, 0, TOMBSTONE_PRUNE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** One ordered schema change; applied at most once and recorded in schema_version. */
+    record Migration(int version, String description, String... statements) {}
+
+    /**
+     * Schema history, oldest first. Append new migrations to the end; never edit or
+     * reorder ones that have shipped. Version 1 uses IF NOT EXISTS so databases created
+     * before schema_version existed are adopted as-is.
+     */
+    private static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "create users and accounts tables",
+            """
+            CREATE TABLE IF NOT EXISTS users (
+              username TEXT PRIMARY KEY,
+              password_hash TEXT NOT NULL,
+              salt TEXT NOT NULL,
+              created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            """,
+            """
+            CREATE TABLE IF NOT EXISTS accounts (
+              id INTEGER PRIMARY KEY AUTOINCREMENT,
+              username TEXT NOT NULL,
+              compte TEXT NOT NULL,
+              account_username TEXT NOT NULL,
+              encrypted_password TEXT NOT NULL,
+              notes TEXT,
+              created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+              FOREIGN KEY(username) REFERENCES users(username)
+            )
+            """),
+        new Migration(2, "index accounts by owner and account name",
+            "CREATE INDEX IF NOT EXISTS idx_accounts_username_compte ON accounts(username, compte)"),
+        new Migration(3, "covering index for listing a user's accounts in id order",
+            "CREATE INDEX IF NOT EXISTS idx_accounts_listing ON accounts(username, id, compte, account_username, notes)"),
+        new Migration(4, "full-text search index over account name, username and notes",
+            """
+            CREATE VIRTUAL TABLE IF NOT EXISTS accounts_fts USING fts5(
+              username, compte, account_username, notes,
+              content='accounts', content_rowid='id', prefix='2 3'
+            )
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_fts_ai AFTER INSERT ON accounts BEGIN
+              INSERT INTO accounts_fts(rowid, username, compte, account_username, notes)
+              VALUES (new.id, new.username, new.compte, new.account_username, new.notes);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_fts_ad AFTER DELETE ON accounts BEGIN
+              INSERT INTO accounts_fts(accounts_fts, rowid, username, compte, account_username, notes)
+              VALUES ('delete', old.id, old.username, old.compte, old.account_username, old.notes);
+            END
+            """,
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_fts_au
+            AFTER UPDATE OF username, compte, account_username, notes ON accounts BEGIN
+              INSERT INTO accounts_fts(accounts_fts, rowid, username, compte, account_username, notes)
+              VALUES ('delete', old.id, old.username, old.compte, old.account_username, old.notes);
+              INSERT INTO accounts_fts(rowid, username, compte, account_username, notes)
+              VALUES (new.id, new.username, new.compte, new.account_username, new.notes);
+            END
+            """,
+            "INSERT INTO accounts_fts(accounts_fts) VALUES ('rebuild')"),
+        new Migration(5, "per-record AES-GCM nonce for account passwords",
+            "ALTER TABLE accounts ADD COLUMN password_nonce TEXT"),
+        new Migration(6, "per-user password KDF parameters; existing rows are single-round SHA-256",
+            "ALTER TABLE users ADD COLUMN hash_algorithm TEXT NOT NULL DEFAULT 'sha256'",
+            "ALTER TABLE users ADD COLUMN hash_iterations INTEGER NOT NULL DEFAULT 1"),
+        new Migration(7, "change sequence and tombstones for incremental sync; existing rows take their id",
+            "ALTER TABLE accounts ADD COLUMN change_seq INTEGER NOT NULL DEFAULT 0",
+            "UPDATE accounts SET change_seq = id",
+            "CREATE TABLE sync_counter (id INTEGER PRIMARY KEY CHECK (id = 1), seq INTEGER NOT NULL)",
+            "INSERT INTO sync_counter VALUES (1, COALESCE((SELECT MAX(id) FROM accounts), 0))",
+            "CREATE INDEX idx_accounts_change ON accounts(username, change_seq)",
+            """
+            CREATE TABLE account_tombstones (
+              id INTEGER PRIMARY KEY,
+              username TEXT NOT NULL,
+              change_seq INTEGER NOT NULL
+            )
+            """,
+            "CREATE INDEX idx_tombstones_change ON account_tombstones(username, change_seq)",
+            """
+            CREATE TRIGGER accounts_seq_ai AFTER INSERT ON accounts BEGIN
+              UPDATE sync_counter SET seq = seq + 1 WHERE id = 1;
+              UPDATE accounts SET change_seq = (SELECT seq FROM sync_counter WHERE id = 1) WHERE id = new.id;
+            END
+            """,
+            """
+            CREATE TRIGGER accounts_seq_au AFTER UPDATE OF compte, account_username, notes ON accounts BEGIN
+              UPDATE sync_counter SET seq = seq + 1 WHERE id = 1;
+              UPDATE accounts SET change_seq = (SELECT seq FROM sync_counter WHERE id = 1) WHERE id = new.id;
+            END
+            """,
+            """
+            CREATE TRIGGER accounts_seq_ad AFTER DELETE ON accounts BEGIN
+              UPDATE sync_counter SET seq = seq + 1 WHERE id = 1;
+              INSERT OR REPLACE INTO account_tombstones (id, username, change_seq)
+              VALUES (old.id, old.username, (SELECT seq FROM sync_counter WHERE id = 1));
+            END
+            """),
+        new Migration(8, "tombstone deletion time and prune watermark; existing tombstones date from now",
+            "ALTER TABLE account_tombstones ADD COLUMN deleted_at INTEGER NOT NULL DEFAULT 0",
+            "UPDATE account_tombstones SET deleted_at = CAST(strftime('%s', 'now') AS INTEGER)",
+            "CREATE INDEX idx_tombstones_age ON account_tombstones(deleted_at)",
+            "ALTER TABLE sync_counter ADD COLUMN pruned_seq INTEGER NOT NULL DEFAULT 0",
+            "DROP TRIGGER accounts_seq_ad",
+            """
+            CREATE TRIGGER accounts_seq_ad AFTER DELETE ON accounts BEGIN
+              UPDATE sync_counter SET seq = seq + 1 WHERE id = 1;
+              INSERT OR REPLACE INTO account_tombstones (id, username, change_seq, deleted_at)
+              VALUES (old.id, old.username, (SELECT seq FROM sync_counter WHERE id = 1),
+                      CAST(strftime('%s', 'now') AS INTEGER));
+            END
+            """)
+    );
+
+    /**
+     * Bring the database up to the latest schema version, one transaction per migration.
+     * Returns a one-line summary for the server log.
+     */
+    private static String initializeDatabase() throws SQLException {
+        long start = System.nanoTime();
+        int applied = 0;
+        int current;
+        try (Connection conn = db.writer()) {
+            try (Statement st = conn.createStatement()) {
+                st.execute("""
+                    CREATE TABLE IF NOT EXISTS schema_version (
+                      version INTEGER PRIMARY KEY,
+                      description TEXT NOT NULL,
+                      applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+            }
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                current = rs.next() ? rs.getInt(1) : 0;
+            }
+
+            for (Migration m : MIGRATIONS) {
+                if (m.version() <= current) continue;
+                conn.setAutoCommit(false);
+                try {
+                    try (Statement st = conn.createStatement()) {
+                        for (String sql : m.statements()) {
+                            st.execute(sql);
+                        }
+                    }
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+                        ps.setInt(1, m.version());
+                        ps.setString(2, m.description());
+                        ps.executeUpdate();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + m.version() + " (" + m.description() + ") failed: "
+                            + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                current = m.version();
+                applied++;
+            }
+        }
+        return String.format("schema v%d, %d migration(s) applied in %.1f ms",
+                current, applied, (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Generate a fresh AES‐256 key for encrypting account passwords. */
+    private static void generateServerKey() throws Exception {
+        KeyGenerator kg = KeyGenerator.getInstance("AES");
+        kg.init(256);
+        serverKey = kg.generateKey();
+    }
+
+    /**
+     * The server's SSLContext, built from a PKCS12 keystore (“keystore.p12” / password
+     * “cyber”) on first use and shared from then on, so restarting the listener does not
+     * reread the keystore and clients keep resuming sessions from the same cache.
+     * Stateless session tickets are on by default since JDK 13; the cache covers older
+     * clients that resume by session id.
+     */
+    private static synchronized SSLContext sslContext() throws Exception {
+        if (sslContext != null) {
+            return sslContext;
+        }
+        String ksPath = "keystore.p12";
+        String ksPass = "cyber";
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (FileInputStream fis = new FileInputStream(ksPath)) {
+            ks.load(fis, ksPass.toCharArray());
+        }
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+        kmf.init(ks, ksPass.toCharArray());
+
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, new SecureRandom());
+        SSLSessionContext cache = ctx.getServerSessionContext();
+        cache.setSessionCacheSize(TLS_SESSION_CACHE);
+        cache.setSessionTimeout(TLS_SESSION_TIMEOUT_SEC);
+        sslContext = ctx;
+        return ctx;
+    }
+
+    /**
+     * Protocols and cipher suites offered by both transports: TLS 1.3 first, TLS 1.2 with
+     * forward-secret AEAD suites as the fallback. The server picks from its own order, so
+     * AES-128-GCM (hardware accelerated and cheaper than AES-256) wins when the client
+     * supports it.
+     */
+    static SSLParameters tlsParameters(SSLContext ctx) {
+        SSLParameters supported = ctx.getSupportedSSLParameters();
+        SSLParameters params = ctx.getDefaultSSLParameters();
+        params.setProtocols(filter(TLS_PROTOCOLS, supported.getProtocols()));
+        params.setCipherSuites(filter(TLS_CIPHER_SUITES, supported.getCipherSuites()));
+        params.setUseCipherSuitesOrder(true);
+        return params;
+    }
+
+    private static String[] filter(String[] wanted, String[] available) {
+        List<String> have = Arrays.asList(available);
+        return Arrays.stream(wanted).filter(have::contains).toArray(String[]::new);
+    }
+
+    /**
+     * A client request. One class covers every action; fields an action does not use
+     * stay null (or 0/false). Read by {@link RequestCodec} straight off the socket.
+     */
+    static final class Request {
+        String requestId;
+        String action;
+        String sessionToken;
+        String username;
+        String password;
+        Integer id;
+        String compte;
+        String accountUsername;
+        String notes;
+        String searchTerm;
+        int limit;
+        int afterId;
+        Double afterScore;
+        boolean stream;
+        List<AccountInput> accounts;
+        List<Integer> ids;
+        String compress;
+        String compressDictionary;
+        int modifiedSince;
+    }
+
+    /** A reply to the client. Null fields are left out of the JSON. */
+    static final class Response {
+        String requestId;
+        boolean success;
+        String message;
+        Boolean busy;
+        String sessionToken;
+        String password;
+        List<AccountSummary> accounts;
+        Boolean hasMore;
+        Integer nextAfterId;
+        Double nextAfterScore;
+        List<ItemResult> results;
+        String compress;
+        Integer compressThreshold;
+        List<Integer> deletedIds;
+        Integer changeSeq;
+        Boolean fullResync;
+
+        static Response failure(String message) {
+            Response r = new Response();
+            r.success = false;
+            r.message = message;
+            return r;
+        }
+
+        static Response busy() {
+            Response r = failure("Server busy, try again later");
+            r.busy = true;
+            return r;
+        }
+    }
+
+    /**
+     * Reads a {@link Request} field by field, skipping unknown keys, without building a tree.
+     * The server never writes requests, so there is no writer side.
+     */
+    static final class RequestCodec {
+        private RequestCodec() {}
+
+        static Request readRequest(JsonReader in) throws IOException {
+            Request r = new Request();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "requestId":        r.requestId = in.nextString(); break;
+                    case "action":           r.action = in.nextString(); break;
+                    case "sessionToken":     r.sessionToken = in.nextString(); break;
+                    case "username":         r.username = in.nextString(); break;
+                    case "password":         r.password = in.nextString(); break;
+                    case "id":               r.id = in.nextInt(); break;
+                    case "compte":           r.compte = in.nextString(); break;
+                    case "account_username": r.accountUsername = in.nextString(); break;
+                    case "notes":            r.notes = in.nextString(); break;
+                    case "searchTerm":       r.searchTerm = in.nextString(); break;
+                    case "limit":            r.limit = in.nextInt(); break;
+                    case "afterId":          r.afterId = in.nextInt(); break;
+                    case "afterScore":       r.afterScore = in.nextDouble(); break;
+                    case "stream":           r.stream = in.nextBoolean(); break;
+                    case "accounts":         r.accounts = readAccountInputs(in); break;
+                    case "ids":              r.ids = readIds(in); break;
+                    case "compress":         r.compress = in.nextString(); break;
+                    case "compressDictionary": r.compressDictionary = in.nextString(); break;
+                    case "modifiedSince":    r.modifiedSince = in.nextInt(); break;
+                    default:                 in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return r;
+        }
+
+        private static List<AccountInput> readAccountInputs(JsonReader in) throws IOException {
+            List<AccountInput> list = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                String compte = null, acctUser = null, password = null, notes = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "compte":           compte = in.nextString(); break;
+                        case "account_username": acctUser = in.nextString(); break;
+                        case "password":         password = in.nextString(); break;
+                        case "notes":            notes = in.nextString(); break;
+                        default:                 in.skipValue(); break;
+                    }
+                }
+                in.endObject();
+                list.add(new AccountInput(compte, acctUser, password, notes));
+            }
+            in.endArray();
+            return list;
+        }
+
+        private static List<Integer> readIds(JsonReader in) throws IOException {
+            List<Integer> ids = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                ids.add(in.nextInt());
+            }
+            in.endArray();
+            return ids;
+        }
+    }
+
+    /**
+     * Writes a {@link Response} directly to the socket writer. The server never reads
+     * responses, so there is no reader side.
+     */
+    static final class ResponseCodec {
+        private ResponseCodec() {}
+
+        static void writeResponse(JsonWriter out, Response r) throws IOException {
+            out.beginObject();
+            if (r.requestId != null) out.name("requestId").value(r.requestId);
+            out.name("success").value(r.success);
+            if (r.message != null) out.name("message").value(r.message);
+            if (r.busy != null) out.name("busy").value(r.busy);
+            if (r.sessionToken != null) out.name("sessionToken").value(r.sessionToken);
+            if (r.password != null) out.name("password").value(r.password);
+            if (r.accounts != null) {
+                out.name("accounts").beginArray();
+                for (AccountSummary a : r.accounts) {
+                    writeAccount(out, a);
+                }
+                out.endArray();
+            }
+            if (r.hasMore != null) out.name("hasMore").value(r.hasMore);
+            if (r.nextAfterId != null) out.name("nextAfterId").value(r.nextAfterId);
+            if (r.nextAfterScore != null) out.name("nextAfterScore").value(r.nextAfterScore);
+            if (r.compress != null) out.name("compress").value(r.compress);
+            if (r.compressThreshold != null) out.name("compressThreshold").value(r.compressThreshold);
+            if (r.deletedIds != null) {
+                out.name("deletedIds").beginArray();
+                for (int id : r.deletedIds) {
+                    out.value(id);
+                }
+                out.endArray();
+            }
+            if (r.changeSeq != null) out.name("changeSeq").value(r.changeSeq);
+            if (r.fullResync != null) out.name("fullResync").value(r.fullResync);
+            if (r.results != null) {
+                out.name("results").beginArray();
+                for (ItemResult item : r.results) {
+                    out.beginObject().name("index").value(item.index());
+                    if (item.id() != null) out.name("id").value(item.id());
+                    out.name("success").value(item.success());
+                    if (item.message() != null) out.name("message").value(item.message());
+                    if (item.password() != null) out.name("password").value(item.password());
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        static void writeAccount(JsonWriter out, AccountSummary a) throws IOException {
+            out.beginObject()
+                    .name("id").value(a.id())
+                    .name("compte").value(a.compte())
+                    .name("account_username").value(a.accountUsername())
+                    .name("notes").value(a.notes())
+                    .endObject();
+        }
+    }
+
+    /**
+     * Write one response as a single JSON line and flush it. JsonWriter does not buffer,
+     * so flushing only once after the newline sends the whole line in one TLS record.
+     */
+    private static void writeResponse(Writer out, Response resp) throws IOException {
+        ResponseCodec.writeResponse(new JsonWriter(out), resp);
+        out.write('\n');
+        out.flush();
+    }
+
+    /** Value of a required request field, or an IllegalArgumentException naming it. */
+    private static <T> T required(T value, String field) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing field: " + field);
+        }
+        return value;
+    }
+
+    /**
+     * The binary wire format, an alternative to JSON lines. A client opts in by sending
+     * {@link #MAGIC} as the very first byte of the connection (no JSON text can start
+     * with it); after that both directions carry frames of a 4-byte big-endian length
+     * followed by that many bytes of payload.
+     *
+     * A payload is a flat sequence of tag-length-value fields: varint tag, varint byte
+     * length, value. Strings are UTF-8, integers zigzag varints, booleans one byte,
+     * doubles 8 bytes, and nested records (accounts, results) are themselves TLV
+     * sequences; a repeated tag forms a list. Unknown tags are skipped, so fields can be
+     * added later. Tags mirror the JSON field names below. Frames have no streaming
+     * mode: the "stream" flag does not exist here, a page is always sent whole.
+     *
+     * Once compression is negotiated, a reply frame whose length has the top bit set
+     * carries its payload deflated on the connection's {@link ReplyCompressor} stream.
+     */
+    static final class BinaryCodec {
+        static final int MAGIC = 0xB1;
+        static final int MAX_FRAME_BYTES = 16 << 20;
+
+        // Request tags.
+        static final int REQ_REQUEST_ID = 1, REQ_ACTION = 2, REQ_SESSION_TOKEN = 3, REQ_USERNAME = 4,
+                REQ_PASSWORD = 5, REQ_ID = 6, REQ_COMPTE = 7, REQ_ACCOUNT_USERNAME = 8, REQ_NOTES = 9,
+                REQ_SEARCH_TERM = 10, REQ_LIMIT = 11, REQ_AFTER_ID = 12, REQ_AFTER_SCORE = 13,
+                REQ_ACCOUNT = 14, REQ_ID_ITEM = 15, REQ_COMPRESS = 16, REQ_MODIFIED_SINCE = 17,
+                REQ_COMPRESS_DICTIONARY = 18;
+        // Response tags.
+        static final int RESP_REQUEST_ID = 1, RESP_SUCCESS = 2, RESP_MESSAGE = 3, RESP_BUSY = 4,
+                RESP_SESSION_TOKEN = 5, RESP_PASSWORD = 6, RESP_ACCOUNT = 7, RESP_HAS_MORE = 8,
+                RESP_NEXT_AFTER_ID = 9, RESP_NEXT_AFTER_SCORE = 10, RESP_RESULT = 11,
+                RESP_COMPRESS = 12, RESP_COMPRESS_THRESHOLD = 13, RESP_DELETED_ID = 14, RESP_CHANGE_SEQ = 15,
+                RESP_FULL_RESYNC = 16;
+        static final int COMPRESSED_FLAG = 0x80000000;
+        // Nested record tags (account rows, batch inputs, batch results).
+        static final int F_ID = 1, F_COMPTE = 2, F_ACCOUNT_USERNAME = 3, F_NOTES = 4, F_PASSWORD = 5,
+                F_INDEX = 6, F_SUCCESS = 7, F_MESSAGE = 8;
+
+        /** Decode one frame payload; IllegalArgumentException if it is truncated or garbled. */
+        static Request decodeRequest(byte[] payload) {
+            Request r = new Request();
+            TlvReader in = new TlvReader(payload, 0, payload.length);
+            while (in.next()) {
+                switch (in.tag) {
+                    case REQ_REQUEST_ID:       r.requestId = in.string(); break;
+                    case REQ_ACTION:           r.action = in.string(); break;
+                    case REQ_SESSION_TOKEN:    r.sessionToken = in.string(); break;
+                    case REQ_USERNAME:         r.username = in.string(); break;
+                    case REQ_PASSWORD:         r.password = in.string(); break;
+                    case REQ_ID:               r.id = in.intValue(); break;
+                    case REQ_COMPTE:           r.compte = in.string(); break;
+                    case REQ_ACCOUNT_USERNAME: r.accountUsername = in.string(); break;
+                    case REQ_NOTES:            r.notes = in.string(); break;
+                    case REQ_SEARCH_TERM:      r.searchTerm = in.string(); break;
+                    case REQ_LIMIT:            r.limit = in.intValue(); break;
+                    case REQ_AFTER_ID:         r.afterId = in.intValue(); break;
+                    case REQ_AFTER_SCORE:      r.afterScore = in.doubleValue(); break;
+                    case REQ_ACCOUNT:
+                        if (r.accounts == null) r.accounts = new ArrayList<>();
+                        r.accounts.add(decodeAccountInput(in.nested()));
+                        break;
+                    case REQ_COMPRESS:         r.compress = in.string(); break;
+                    case REQ_COMPRESS_DICTIONARY: r.compressDictionary = in.string(); break;
+                    case REQ_MODIFIED_SINCE:   r.modifiedSince = in.intValue(); break;
+                    case REQ_ID_ITEM:
+                        if (r.ids == null) r.ids = new ArrayList<>();
+                        r.ids.add(in.intValue());
+                        break;
+                    default: break;                 // unknown field: skipped
+                }
+            }
+            return r;
+        }
+
+        private static AccountInput decodeAccountInput(TlvReader in) {
+            String compte = null, acctUser = null, password = null, notes = null;
+            while (in.next()) {
+                switch (in.tag) {
+                    case F_COMPTE:           compte = in.string(); break;
+                    case F_ACCOUNT_USERNAME: acctUser = in.string(); break;
+                    case F_PASSWORD:         password = in.string(); break;
+                    case F_NOTES:            notes = in.string(); break;
+                    default: break;
+                }
+            }
+            return new AccountInput(compte, acctUser, password, notes);
+        }
+
+        /** Encode a reply as a complete frame, length prefix included. */
+        static byte[] encodeResponse(Response r) {
+            TlvWriter out = new TlvWriter();
+            out.reserveLength();
+            if (r.requestId != null) out.string(RESP_REQUEST_ID, r.requestId);
+            out.bool(RESP_SUCCESS, r.success);
+            if (r.message != null) out.string(RESP_MESSAGE, r.message);
+            if (r.busy != null) out.bool(RESP_BUSY, r.busy);
+            if (r.sessionToken != null) out.string(RESP_SESSION_TOKEN, r.sessionToken);
+            if (r.password != null) out.string(RESP_PASSWORD, r.password);
+            if (r.accounts != null) {
+                for (AccountSummary a : r.accounts) {
+                    TlvWriter row = new TlvWriter();
+                    row.intValue(F_ID, a.id());
+                    if (a.compte() != null) row.string(F_COMPTE, a.compte());
+                    if (a.accountUsername() != null) row.string(F_ACCOUNT_USERNAME, a.accountUsername());
+                    if (a.notes() != null) row.string(F_NOTES, a.notes());
+                    out.nested(RESP_ACCOUNT, row);
+                }
+            }
+            if (r.hasMore != null) out.bool(RESP_HAS_MORE, r.hasMore);
+            if (r.nextAfterId != null) out.intValue(RESP_NEXT_AFTER_ID, r.nextAfterId);
+            if (r.nextAfterScore != null) out.doubleValue(RESP_NEXT_AFTER_SCORE, r.nextAfterScore);
+            if (r.compress != null) out.string(RESP_COMPRESS, r.compress);
+            if (r.compressThreshold != null) out.intValue(RESP_COMPRESS_THRESHOLD, r.compressThreshold);
+            if (r.deletedIds != null) {
+                for (int id : r.deletedIds) {
+                    out.intValue(RESP_DELETED_ID, id);
+                }
+            }
+            if (r.changeSeq != null) out.intValue(RESP_CHANGE_SEQ, r.changeSeq);
+            if (r.fullResync != null) out.bool(RESP_FULL_RESYNC, r.fullResync);
+            if (r.results != null) {
+                for (ItemResult item : r.results) {
+                    TlvWriter res = new TlvWriter();
+                    res.intValue(F_INDEX, item.index());
+                    if (item.id() != null) res.intValue(F_ID, item.id());
+                    res.bool(F_SUCCESS, item.success());
+                    if (item.message() != null) res.string(F_MESSAGE, item.message());
+                    if (item.password() != null) res.string(F_PASSWORD, item.password());
+                    out.nested(RESP_RESULT, res);
+                }
+            }
+            return out.toFrame();
+        }
+
+        /** Cursor over a TLV sequence; next() moves to the following field. */
+        static final class TlvReader {
+            private final byte[] buf;
+            private int pos;
+            private final int end;
+            int tag;
+            private int valueStart;
+            private int valueLength;
+
+            TlvReader(byte[] buf, int start, int end) {
+                this.buf = buf;
+                this.pos = start;
+                this.end = end;
+            }
+
+            boolean next() {
+                if (pos >= end) return false;
+                tag = readVarint();
+                valueLength = readVarint();
+                if (valueLength < 0 || valueLength > end - pos) {
+                    throw new IllegalArgumentException("Field " + tag + " runs past the end of the frame");
+                }
+                valueStart = pos;
+                pos += valueLength;
+                return true;
+            }
+
+            String string() {
+                return new String(buf, valueStart, valueLength, StandardCharsets.UTF_8);
+            }
+
+            int intValue() {
+                int saved = pos;
+                pos = valueStart;
+                int raw = readVarint();
+                pos = saved;
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+
+            boolean boolValue() {
+                return valueLength > 0 && buf[valueStart] != 0;
+            }
+
+            double doubleValue() {
+                if (valueLength != 8) throw new IllegalArgumentException("Field " + tag + " is not a double");
+                return ByteBuffer.wrap(buf, valueStart, 8).getDouble();
+            }
+
+            TlvReader nested() {
+                return new TlvReader(buf, valueStart, valueStart + valueLength);
+            }
+
+            private int readVarint() {
+                int value = 0;
+                for (int shift = 0; shift < 35; shift += 7) {
+                    if (pos >= end) throw new IllegalArgumentException("Truncated frame");
+                    byte b = buf[pos++];
+                    value |= (b & 0x7F) << shift;
+                    if (b >= 0) return value;
+                }
+                throw new IllegalArgumentException("Malformed varint");
+            }
+        }
+
+        /** Builds a TLV sequence in a growable buffer. */
+        static final class TlvWriter {
+            private byte[] buf = new byte[256];
+            private int len;
+            private boolean framed;
+
+            void reserveLength() {
+                len = 4;
+                framed = true;
+            }
+
+            void string(int tag, String s) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                header(tag, b.length);
+                put(b, 0, b.length);
+            }
+
+            void intValue(int tag, int v) {
+                int zigzag = (v << 1) ^ (v >> 31);
+                header(tag, varintSize(zigzag));
+                varint(zigzag);
+            }
+
+            void bool(int tag, boolean v) {
+                header(tag, 1);
+                ensure(1);
+                buf[len++] = (byte) (v ? 1 : 0);
+            }
+
+            void doubleValue(int tag, double v) {
+                header(tag, 8);
+                ensure(8);
+                ByteBuffer.wrap(buf, len, 8).putDouble(v);
+                len += 8;
+            }
+
+            void nested(int tag, TlvWriter inner) {
+                header(tag, inner.len);
+                put(inner.buf, 0, inner.len);
+            }
+
+            byte[] toFrame() {
+                ByteBuffer.wrap(buf, 0, 4).putInt(len - 4);
+                return Arrays.copyOf(buf, len);
+            }
+
+            private void header(int tag, int length) {
+                varint(tag);
+                varint(length);
+            }
+
+            private void varint(int v) {
+                ensure(5);
+                while ((v & ~0x7F) != 0) {
+                    buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                    v >>>= 7;
+                }
+                buf[len++] = (byte) v;
+            }
+
+            private static int varintSize(int v) {
+                int n = 1;
+                while ((v & ~0x7F) != 0) {
+                    v >>>= 7;
+                    n++;
+                }
+                return n;
+            }
+
+            private void put(byte[] b, int off, int n) {
+                ensure(n);
+                System.arraycopy(b, off, buf, len, n);
+                len += n;
+            }
+
+            private void ensure(int n) {
+                if (len + n > buf.length) {
+                    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-connection reply compression, switched on by the "hello" action. One Deflater
+     * lives as long as the connection and every message ends with a SYNC_FLUSH, so later
+     * replies are compressed against earlier ones (field names, repeated notes) and the
+     * client keeps a single matching Inflater. Both sides preload {@link #DICTIONARY}, so
+     * even the first reply finds the JSON field names already in the window; the client
+     * names its copy by CRC-32 in hello, and compression is refused if the two differ.
+     *
+     * Use is serialized by the connection's write lock: replies must be deflated in the
+     * order they go on the wire. The native zlib state is freed by the Deflater's cleaner
+     * once the connection is dropped.
+     */
+    static final class ReplyCompressor {
+        static final String DEFLATE = "deflate";
+        // Must match the client's copy byte for byte. Most frequent strings go last.
+        static final byte[] DICTIONARY = ("\"results\":[{\"index\":\"password\":\"message\":\"Account not found\""
+                + "\"nextAfterScore\":\"nextAfterId\":\"hasMore\":false,\"hasMore\":true,"
+                + "{\"requestId\":\"success\":true,\"accounts\":["
+                + "{\"id\":\",\"compte\":\"\",\"account_username\":\"\",\"notes\":\"\"},")
+                .getBytes(StandardCharsets.UTF_8);
+        // CRC-32 of DICTIONARY as 8 hex digits, compared with the client's "compressDictionary".
+        static final String DICTIONARY_ID = dictionaryId(DICTIONARY);
+
+        private static final ThreadMXBean CPU = ManagementFactory.getThreadMXBean();
+        private static final LongAdder compressed = new LongAdder();
+        private static final LongAdder skipped = new LongAdder();
+        private static final LongAdder rawBytes = new LongAdder();
+        private static final LongAdder deflatedBytes = new LongAdder();
+        private static final LongAdder cpuNanos = new LongAdder();
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private byte[] buf = new byte[8192];
+
+        ReplyCompressor() {
+            deflater.setDictionary(DICTIONARY);
+        }
+
+        static String dictionaryId(byte[] dictionary) {
+            CRC32 crc = new CRC32();
+            crc.update(dictionary);
+            return String.format("%08x", crc.getValue());
+        }
+
+        /** Deflate one message and flush it, keeping the stream open for the next. */
+        byte[] deflate(byte[] data, int off, int len) {
+            long start = cpuTime();
+            deflater.setInput(data, off, len);
+            int n = 0;
+            while (true) {
+                n += deflater.deflate(buf, n, buf.length - n, Deflater.SYNC_FLUSH);
+                if (n < buf.length) break;
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            cpuNanos.add(cpuTime() - start);
+            compressed.increment();
+            rawBytes.add(len);
+            deflatedBytes.add(n);
+            return Arrays.copyOf(buf, n);
+        }
+
+        /** Note a reply that was below the threshold and went out as is. */
+        static void skipped() {
+            skipped.increment();
+        }
+
+        private static long cpuTime() {
+            return CPU.isCurrentThreadCpuTimeSupported() ? CPU.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+
+        static String stats() {
+            long n = compressed.sum(), raw = rawBytes.sum(), out = deflatedBytes.sum();
+            return String.format("%d replies deflated (%d B -> %d B, ratio %.2f), %d below threshold, "
+                            + "%.2f ms CPU (%.1f us/reply)",
+                    n, raw, out, out == 0 ? 0.0 : (double) raw / out, skipped.sum(),
+                    cpuNanos.sum() / 1e6, n == 0 ? 0.0 : cpuNanos.sum() / 1e3 / n);
+        }
+    }
+
+    /** Traffic counters for one wire format: messages and plaintext bytes each way. */
+    static final class WireCounters {
+        final String name;
+        final LongAdder requests = new LongAdder();
+        final LongAdder replies = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+
+        WireCounters(String name) {
+            this.name = name;
+        }
+
+        String stats() {
+            long req = requests.sum(), rep = replies.sum(), in = bytesIn.sum(), out = bytesOut.sum();
+            return String.format("%s: %d requests (%d B, avg %d B), %d replies (%d B, avg %d B)",
+                    name, req, in, req == 0 ? 0 : in / req, rep, out, rep == 0 ? 0 : out / rep);
+        }
+
+        InputStream count(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) bytesIn.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int n) throws IOException {
+                    int r = super.read(b, off, n);
+                    if (r > 0) bytesIn.add(r);
+                    return r;
+                }
+            };
+        }
+
+        OutputStream count(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytesOut.increment();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int n) throws IOException {
+                    out.write(b, off, n);
+                    bytesOut.add(n);
+                }
+            };
+        }
+    }
+
+    private static final WireCounters jsonWire = new WireCounters("json");
+    private static final WireCounters binaryWire = new WireCounters("binary");
+
+    /**
+     * Handshake counters for both transports. A session whose creation time predates the
+     * handshake was resumed from the session cache or a ticket rather than negotiated in
+     * full, which is the cost a reconnecting client should avoid paying.
+     */
+    static final class HandshakeStats {
+        private final LongAdder full = new LongAdder();
+        private final LongAdder resumed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder fullNanos = new LongAdder();
+        private final LongAdder resumedNanos = new LongAdder();
+
+        /** Record a completed handshake that began at startMillis / startNanos. */
+        void completed(SSLSession session, long startMillis, long startNanos) {
+            long nanos = System.nanoTime() - startNanos;
+            if (session.getCreationTime() < startMillis) {
+                resumed.increment();
+                resumedNanos.add(nanos);
+            } else {
+                full.increment();
+                fullNanos.add(nanos);
+            }
+        }
+
+        void failed() {
+            failed.increment();
+        }
+
+        String stats() {
+            long f = full.sum(), r = resumed.sum();
+            return String.format("%d full (avg %.2f ms), %d resumed (avg %.2f ms), %d failed",
+                    f, f == 0 ? 0.0 : fullNanos.sum() / 1e6 / f,
+                    r, r == 0 ? 0.0 : resumedNanos.sum() / 1e6 / r, failed.sum());
+        }
+    }
+
+    private static final HandshakeStats handshakes = new HandshakeStats();
+
+    /**
+     * ClientHandler: the blocking transport. Reads JSON requests over SSL on its own
+     * thread and hands them to a {@link RequestDispatcher}. Requests are parsed with a
+     * lenient JsonReader directly over the socket stream, so consecutive
+     * newline-separated objects are read one after another. A connection whose first
+     * byte is {@link BinaryCodec#MAGIC} speaks binary frames instead. Every request goes
+     * through a {@link RequestPipeline} on the shared pipeline workers; after an untagged
+     * one the reader waits for its reply before reading on.
+     */
+    static class ClientHandler implements Runnable {
+        // A binary frame's buffer starts this small and grows as its bytes arrive.
+        private static final int FRAME_READ_CHUNK = 64 << 10;
+
+        private final SSLSocket socket;
+        private RequestDispatcher dispatcher;
+        private RequestPipeline pipeline;
+
+        ClientHandler(SSLSocket sock) {
+            this.socket = sock;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Handshake flights go out as several small writes; Nagle would hold them
+                // back waiting for delayed ACKs.
+                socket.setTcpNoDelay(true);
+                long startMillis = System.currentTimeMillis(), startNanos = System.nanoTime();
+                try {
+                    socket.startHandshake();
+                } catch (IOException e) {
+                    handshakes.failed();
+                    throw e;
+                }
+                handshakes.completed(socket.getSession(), startMillis, startNanos);
+                BufferedInputStream raw = new BufferedInputStream(socket.getInputStream());
+                raw.mark(1);
+                int first = raw.read();
+                raw.reset();
+                if (first == BinaryCodec.MAGIC) {
+                    serveBinary(binaryWire.count(raw));
+                } else if (first >= 0) {
+                    serveJson(jsonWire.count(raw));
+                }
+            } catch (IOException e) {
+                LOG.warn("[SERVER] ClientHandler I/O error: %s", e.getMessage());
+            } finally {
+                if (pipeline != null) {
+                    pipeline.shutdown();
+                }
+                if (dispatcher != null) {
+                    dispatcher.close();
+                }
+                closeSocket();
+            }
+        }
+
+        private void serveJson(InputStream raw) throws IOException {
+            JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8)));
+            in.setLenient(true);
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    jsonWire.count(socket.getOutputStream()), StandardCharsets.UTF_8));
+            start(new RequestDispatcher(out));
+
+            while (in.peek() != JsonToken.END_DOCUMENT) {
+                Request req;
+                try {
+                    req = RequestCodec.readRequest(in);
+                } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+                    // The reader cannot resynchronise after bad input, so reply and hang up.
+                    dispatcher.write(Response.failure("Malformed request: " + e.getMessage()));
+                    return;
+                }
+                accept(req);
+            }
+            pipeline.awaitIdle(PIPELINE_DRAIN_MS);
+        }
+
+        private void serveBinary(InputStream raw) throws IOException {
+            DataInputStream in = new DataInputStream(raw);
+            in.readUnsignedByte();                          // the MAGIC byte
+            start(new RequestDispatcher(new BufferedOutputStream(binaryWire.count(socket.getOutputStream()))));
+
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > BinaryCodec.MAX_FRAME_BYTES) {
+                    dispatcher.write(Response.failure("Malformed request: bad frame length " + length));
+                    return;
+                }
+                byte[] payload = readPayload(in, length);
+                Request req;
+                try {
+                    req = BinaryCodec.decodeRequest(payload);
+                } catch (IllegalArgumentException e) {
+                    dispatcher.write(Response.failure("Malformed request: " + e.getMessage()));
+                    return;
+                }
+                accept(req);
+            }
+            pipeline.awaitIdle(PIPELINE_DRAIN_MS);
+        }
+
+        /**
+         * Read a frame of the announced length. The length comes from the peer, so memory
+         * is only committed as the bytes actually arrive, never up front.
+         */
+        private static byte[] readPayload(InputStream in, int length) throws IOException {
+            byte[] buf = new byte[Math.min(length, FRAME_READ_CHUNK)];
+            int n = 0;
+            while (n < length) {
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, (int) Math.min(length, 2L * buf.length));
+                }
+                int r = in.read(buf, n, buf.length - n);
+                if (r < 0) throw new EOFException("Connection closed in the middle of a frame");
+                n += r;
+            }
+            return buf;
+        }
 
-        KeyStore ks = KeyStore.getInstance("PKCS12");
-        try (FileInputStream fis = new FileInputStream(ksPath)) {
-            ks.load(fis, ksPass.toCharArray());
+        private void start(RequestDispatcher d) {
+            dispatcher = d;
+            pipeline = new RequestPipeline(d, pipelineWorkers, this::closeSocket);
         }
 
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-        kmf.init(ks, ksPass.toCharArray());
+        private void accept(Request req) throws IOException {
+            if (!pipeline.submit(req)) {
+                Response busy = Response.busy();
+                busy.requestId = req.requestId;
+                dispatcher.write(busy);
+            } else if (req.requestId == null) {
+                // Untagged clients expect lock-step replies, so read nothing more until it is answered
+                pipeline.awaitIdle(PIPELINE_DRAIN_MS);
+            }
+        }
 
-        SSLContext ctx = SSLContext.getInstance("TLS");
-        ctx.init(kmf.getKeyManagers(), null, new SecureRandom());
-        return ctx;
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
     }
 
-    /** ClientHandler: receives JSON requests over SSL, dispatches, replies in JSON. */
-    static class ClientHandler implements Runnable {
-        private final SSLSocket socket;
-        private BufferedReader in;
-        private PrintWriter out;
+    /**
+     * Runs requests for one connection, whichever transport it arrived on, and writes
+     * each reply (or streamed page) as a JSON line or, on a binary connection, as a
+     * {@link BinaryCodec} frame. Requests may run concurrently, so every reply is written
+     * whole while holding the write lock.
+     */
+    static final class RequestDispatcher {
+        private final Writer out;             // JSON lines; null on a binary connection
+        private final OutputStream frames;    // binary frames; null on a JSON connection
+        private final Object writeLock;
+        private final WireCounters counters;
+        private volatile ReplyCompressor compressor;    // set once the client says hello; guarded by writeLock
+        // Sessions opened on this connection; they end when it closes.
+        private final Set<String> issuedTokens = ConcurrentHashMap.newKeySet();
 
-        ClientHandler(SSLSocket sock) {
-            this.socket = sock;
+        RequestDispatcher(Writer out) {
+            this.out = out;
+            this.frames = null;
+            this.writeLock = out;
+            this.counters = jsonWire;
         }
 
-        @Override
-        public void run() {
-            try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
+        RequestDispatcher(OutputStream frames) {
+            this.out = null;
+            this.frames = frames;
+            this.writeLock = frames;
+            this.counters = binaryWire;
+        }
 
-                String line;
-                while ((line = in.readLine()) != null) {
-                    processRequest(line);
+        /** Write one reply, tagged by the caller if it answers a specific request. */
+        void write(Response resp) throws IOException {
+            synchronized (writeLock) {
+                if (compressor != null) {
+                    writeCompressed(resp);
+                } else if (frames != null) {
+                    frames.write(BinaryCodec.encodeResponse(resp));
+                    frames.flush();
+                } else {
+                    writeResponse(out, resp);
                 }
-            } catch (IOException e) {
-                System.err.println("[SERVER] ClientHandler I/O error: " + e.getMessage());
-            } finally {
-                try {
-                    socket.close();
-                } catch (IOException ignored) {}
             }
+            counters.replies.increment();
         }
 
-        /** Parse JSON “line” and dispatch to the appropriate handler. */
-        private void processRequest(String requestJson) {
+        /**
+         * Deflate replies of COMPRESS_THRESHOLD bytes or more. A JSON reply becomes the
+         * line {"z":"<base64>"}; a binary frame gets COMPRESSED_FLAG in its length.
+         */
+        private void writeCompressed(Response resp) throws IOException {
+            if (frames != null) {
+                byte[] frame = BinaryCodec.encodeResponse(resp);
+                int length = frame.length - 4;
+                if (length < COMPRESS_THRESHOLD) {
+                    ReplyCompressor.skipped();
+                    frames.write(frame);
+                } else {
+                    byte[] z = compressor.deflate(frame, 4, length);
+                    byte[] header = ByteBuffer.allocate(4).putInt(z.length | BinaryCodec.COMPRESSED_FLAG).array();
+                    frames.write(header);
+                    frames.write(z);
+                }
+                frames.flush();
+                return;
+            }
+            StringWriter json = new StringWriter();
+            ResponseCodec.writeResponse(new JsonWriter(json), resp);
+            byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < COMPRESS_THRESHOLD) {
+                ReplyCompressor.skipped();
+                out.write(json.toString());
+            } else {
+                out.write("{\"z\":\"");
+                out.write(Base64.getEncoder().encodeToString(compressor.deflate(bytes, 0, bytes.length)));
+                out.write("\"}");
+            }
+            out.write('\n');
+            out.flush();
+        }
+
+        /** End the sessions this connection logged in. */
+        void close() {
+            for (String token : issuedTokens) {
+                sessions.remove(token);
+            }
+        }
+
+        /** Dispatch a request to the appropriate handler and write its reply. */
+        void processRequest(Request req) throws IOException {
+            counters.requests.increment();
+            if (compressor != null) {
+                req.stream = false;          // compressed replies are deflated whole
+            }
+            Response resp;
             try {
-                JsonObject req = gson.fromJson(requestJson, JsonObject.class);
-                String action = req.get("action").getAsString();
-                JsonObject resp;
+                String action = required(req.action, "action");
 
                switch (action) {
     case "register":      resp = handleRegister(req);      break;
@@ -215,379 +3408,1034 @@ public class PasswordManagerServer {
     case "updateAccount": resp = handleUpdateAccount(req); break;
     case "deleteAccount": resp = handleDeleteAccount(req); break;
     case "searchAccounts":resp = handleSearchAccounts(req);break;
+    case "createAccounts":resp = handleCreateAccounts(req);break;
+    case "getPasswords":  resp = handleGetPasswords(req);  break;
+    case "deleteAccounts":resp = handleDeleteAccounts(req);break;
+    case "syncAccounts":  resp = handleSyncAccounts(req);  break;
+    case "logout":        resp = handleLogout(req);        break;
+    case "hello":         resp = handleHello(req);         break;
     default:
-        resp = new JsonObject();
-        resp.addProperty("success", false);
-        resp.addProperty("message", "Unknown action: " + action);
+        resp = Response.failure("Unknown action: " + action);
         break;
 }
 
-
-                out.println(gson.toJson(resp));
-
             } catch (Exception e) {
-                JsonObject err = new JsonObject();
-                err.addProperty("success", false);
-                err.addProperty("message", "Server error: " + e.getMessage());
-                out.println(gson.toJson(err));
+                resp = Response.failure("Server error: " + e.getMessage());
+            }
+            if (resp != null) {              // null: the handler streamed its own reply
+                resp.requestId = req.requestId;
+                write(resp);
             }
         }
 
-        private JsonObject handleRegister(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleRegister(Request req) {
+            Response resp = new Response();
             try {
-                String username = sanitize(req.get("username").getAsString());
-                String password = req.get("password").getAsString();
+                String username = sanitize(required(req.username, "username"));
+                String password = required(req.password, "password");
 
                 if (!isValidUsername(username) || !isValidPassword(password)) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid input format");
+                    resp.success = false;
+                    resp.message = "Invalid input format";
                     return resp;
                 }
 
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String check = "SELECT username FROM users WHERE username = ?";
-                    try (PreparedStatement ps = conn.prepareStatement(check)) {
-                        ps.setString(1, username);
-                        ResultSet rs = ps.executeQuery();
-                        if (rs.next()) {
-                            resp.addProperty("success", false);
-                            resp.addProperty("message", "Username already exists");
-                            return resp;
-                        }
-                    }
+                if (!repo.createUser(username, hasher.hash(password))) {
+                    resp.success = false;
+                    resp.message = "Username already exists";
+                    return resp;
+                }
 
-                    String salt = generateSalt();
-                    String hashed = hash(password, salt);
-                    String insert = "INSERT INTO users (username, password_hash, salt) VALUES (?, ?, ?)";
-                    try (PreparedStatement ps = conn.prepareStatement(insert)) {
-                        ps.setString(1, username);
-                        ps.setString(2, hashed);
-                        ps.setString(3, salt);
-                        ps.executeUpdate();
+                resp.success = true;
+                resp.message = "Registration successful";
+                LOG.info("[SERVER] Registered: %s", username);
+            } catch (RejectedExecutionException e) {
+                resp = Response.busy();
+            } catch (Exception e) {
+                resp.success = false;
+                resp.message = "Registration failed: " + e.getMessage();
+            }
+            return resp;
+        }
+
+        private Response handleLogin(Request req) {
+            Response resp = new Response();
+            try {
+                String username = sanitize(required(req.username, "username"));
+                String password = required(req.password, "password");
+
+                UserCredentials creds = repo.findCredentials(username);
+                if (hasher.verify(password, creds)) {
+                    if (hasher.needsUpgrade(creds)) {
+                        repo.updateCredentials(username, hasher.hash(password));
+                        LOG.info("[SERVER] Upgraded password hash for %s", username);
                     }
+                    String token = tokens.newSessionToken();
+                    sessions.register(token, username);
+                    issuedTokens.add(token);
+                    resp.success = true;
+                    resp.sessionToken = token;
+                    resp.message = "Login successful";
+                    LOG.info("[SERVER] Logged in: %s", username);
+                } else {
+                    resp.success = false;
+                    resp.message = "Invalid credentials";
+                }
+            } catch (RejectedExecutionException e) {
+                resp = Response.busy();
+            } catch (Exception e) {
+                resp.success = false;
+                resp.message = "Login failed: " + e.getMessage();
+            }
+            return resp;
+        }
+
+        /**
+         * Negotiate connection options; currently only {"compress":"deflate"}, which also
+         * needs a "compressDictionary" equal to ReplyCompressor.DICTIONARY_ID. The reply
+         * itself is sent uncompressed, and everything after it may be deflated.
+         */
+        private Response handleHello(Request req) throws IOException {
+            Response resp = new Response();
+            resp.requestId = req.requestId;
+            resp.success = true;
+            boolean wanted = ReplyCompressor.DEFLATE.equals(req.compress) && COMPRESS_THRESHOLD >= 0;
+            if (wanted && !ReplyCompressor.DICTIONARY_ID.equals(req.compressDictionary)) {
+                // A different preset dictionary would make every reply undecodable.
+                wanted = false;
+                resp.message = "No compression (dictionary mismatch)";
+            } else if (wanted) {
+                resp.compress = ReplyCompressor.DEFLATE;
+                resp.compressThreshold = COMPRESS_THRESHOLD;
+                resp.message = "Compression enabled";
+            } else {
+                resp.message = "No compression";
+            }
+            synchronized (writeLock) {
+                write(resp);
+                if (wanted && compressor == null) {
+                    compressor = new ReplyCompressor();
+                }
+            }
+            return null;
+        }
+
+        private Response handleLogout(Request req) {
+            Response resp = new Response();
+            String token = required(req.sessionToken, "sessionToken");
+            issuedTokens.remove(token);
+            if (sessions.remove(token)) {
+                resp.success = true;
+                resp.message = "Logged out";
+            } else {
+                resp.success = false;
+                resp.message = "Invalid session";
+            }
+            return resp;
+        }
+
+        private Response handleGetAccounts(Request req) {
+            Response resp = new Response();
+            try {
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
+                if (user == null) {
+                    resp.success = false;
+                    resp.message = "Invalid session";
+                    return resp;
+                }
 
-                    resp.addProperty("success", true);
-                    resp.addProperty("message", "Registration successful");
-                    System.out.println("[SERVER] Registered: " + username);
+                int limit = pageLimit(req);
+                int afterId = req.afterId;
+                PageQuery query = sink -> repo.listAccounts(user, afterId, limit, sink);
+                if (req.stream) {
+                    streamAccounts(req.requestId, query, false);
+                    LOG.debug("[SERVER] [%s] Listed accounts", user);
+                    return null;
                 }
+                List<AccountSummary> rows = new ArrayList<>();
+                Page page = query.run(rows::add);
+                resp.success = true;
+                resp.accounts = rows;
+                addCursor(resp, page, false);
+                LOG.debug("[SERVER] [%s] Listed accounts", user);
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Registration failed: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Error fetching accounts: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleLogin(JsonObject req) {
-            JsonObject resp = new JsonObject();
-            try {
-                String username = sanitize(req.get("username").getAsString());
-                String password = req.get("password").getAsString();
-
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String query = "SELECT password_hash, salt FROM users WHERE username = ?";
-                    try (PreparedStatement ps = conn.prepareStatement(query)) {
-                        ps.setString(1, username);
-                        ResultSet rs = ps.executeQuery();
-                        if (rs.next()) {
-                            String storedHash = rs.getString("password_hash");
-                            String salt = rs.getString("salt");
-                            String inputHash = hash(password, salt);
-                            if (storedHash.equals(inputHash)) {
-                                String token = generateSessionToken();
-                                activeSessions.put(token, username);
-                                resp.addProperty("success", true);
-                                resp.addProperty("sessionToken", token);
-                                resp.addProperty("message", "Login successful");
-                                System.out.println("[SERVER] Logged in: " + username);
-                            } else {
-                                resp.addProperty("success", false);
-                                resp.addProperty("message", "Invalid credentials");
-                            }
-                        } else {
-                            resp.addProperty("success", false);
-                            resp.addProperty("message", "Invalid credentials");
-                        }
-                    }
+        /**
+         * Changes to the caller's accounts since the "modifiedSince" change number (0 for
+         * everything): changed rows in "accounts", removed ids in "deletedIds", and the
+         * number to send next time in "changeSeq". "hasMore" means call again at once;
+         * "fullResync" means deletions since then were forgotten, so reload from 0.
+         */
+        private Response handleSyncAccounts(Request req) {
+            Response resp = new Response();
+            try {
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
+                if (user == null) {
+                    resp.success = false;
+                    resp.message = "Invalid session";
+                    return resp;
                 }
+
+                int limit = (req.limit <= 0) ? MAX_SYNC_PAGE : Math.min(req.limit, MAX_SYNC_PAGE);
+                ChangeSet changes = repo.changesSince(user, Math.max(0, req.modifiedSince), limit);
+                resp.success = true;
+                resp.accounts = changes.changed();
+                resp.deletedIds = changes.deleted();
+                resp.changeSeq = changes.changeSeq();
+                resp.hasMore = changes.hasMore();
+                if (changes.fullResync()) resp.fullResync = true;
+                LOG.debug("[SERVER] [%s] Synced %d changed, %d deleted since %d",
+                        user, changes.changed().size(), changes.deleted().size(), req.modifiedSince);
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Login failed: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Sync failed: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleGetAccounts(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleGetPassword(Request req) {
+            Response resp = new Response();
             try {
-                String token = req.get("sessionToken").getAsString();
-                String user = activeSessions.get(token);
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
                 if (user == null) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid session");
+                    resp.success = false;
+                    resp.message = "Invalid session";
                     return resp;
                 }
 
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String query = "SELECT id, compte, account_username, notes FROM accounts WHERE username = ?";
-                    try (PreparedStatement ps = conn.prepareStatement(query)) {
-                        ps.setString(1, user);
-                        ResultSet rs = ps.executeQuery();
+                int accountId = required(req.id, "id");
+                SealedPassword enc = repo.findEncryptedPassword(user, accountId);
+                if (enc != null) {
+                    String plain = decrypt(enc);
+                    resp.success = true;
+                    resp.password = plain;
+                    LOG.debug("[SERVER] [%s] Retrieved password for account ID %s", user, accountId);
+                } else {
+                    resp.success = false;
+                    resp.message = "Account not found";
+                }
+            } catch (Exception e) {
+                resp.success = false;
+                resp.message = "Error retrieving password: " + e.getMessage();
+            }
+            return resp;
+        }
 
-                        JsonArray arr = new JsonArray();
-                        while (rs.next()) {
-                            JsonObject acct = new JsonObject();
-                            acct.addProperty("id", rs.getInt("id"));
-                            acct.addProperty("compte", rs.getString("compte"));
-                            acct.addProperty("account_username", rs.getString("account_username"));
-                            acct.addProperty("notes", rs.getString("notes"));
-                            arr.add(acct);
-                        }
-                        resp.addProperty("success", true);
-                        resp.add("accounts", arr);
-                        System.out.println("[SERVER] [" + user + "] Listed accounts");
-                    }
+        private Response handleCreateAccount(Request req) {
+            Response resp = new Response();
+            try {
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
+                if (user == null) {
+                    resp.success = false;
+                    resp.message = "Invalid session";
+                    return resp;
                 }
+
+                String compte = sanitize(required(req.compte, "compte"));
+                String acctUser = sanitize(required(req.accountUsername, "account_username"));
+                String password = required(req.password, "password");
+                String notes = sanitize(required(req.notes, "notes"));
+                SealedPassword encPwd = encrypt(password);
+
+                repo.insertAccount(user, compte, acctUser, encPwd, notes);
+                resp.success = true;
+                resp.message = "Account created";
+                LOG.info("[SERVER] [%s] Created account: %s", user, compte);
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Error fetching accounts: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Create failed: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleGetPassword(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleUpdateAccount(Request req) {
+            Response resp = new Response();
             try {
-                String token = req.get("sessionToken").getAsString();
-                String user = activeSessions.get(token);
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
                 if (user == null) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid session");
+                    resp.success = false;
+                    resp.message = "Invalid session";
                     return resp;
                 }
 
-                int accountId = req.get("id").getAsInt();
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String query = "SELECT encrypted_password FROM accounts WHERE id = ? AND username = ?";
-                    try (PreparedStatement ps = conn.prepareStatement(query)) {
-                        ps.setInt(1, accountId);
-                        ps.setString(2, user);
-                        ResultSet rs = ps.executeQuery();
-                        if (rs.next()) {
-                            String enc = rs.getString("encrypted_password");
-                            String plain = decrypt(enc);
-                            resp.addProperty("success", true);
-                            resp.addProperty("password", plain);
-                            System.out.println("[SERVER] [" + user + "] Retrieved password for account ID " + accountId);
-                        } else {
-                            resp.addProperty("success", false);
-                            resp.addProperty("message", "Account not found");
-                        }
-                    }
+                int id = required(req.id, "id");
+                String compte = sanitize(required(req.compte, "compte"));
+                String acctUser = sanitize(required(req.accountUsername, "account_username"));
+                String password = required(req.password, "password");
+                String notes = sanitize(required(req.notes, "notes"));
+                SealedPassword encPwd = encrypt(password);
+
+                if (repo.updateAccount(user, id, compte, acctUser, encPwd, notes)) {
+                    resp.success = true;
+                    resp.message = "Account updated";
+                    LOG.info("[SERVER] [%s] Updated account ID %s", user, id);
+                } else {
+                    resp.success = false;
+                    resp.message = "Account not found or unauthorized";
                 }
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Error retrieving password: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Update failed: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleCreateAccount(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleDeleteAccount(Request req) {
+            Response resp = new Response();
             try {
-                String token = req.get("sessionToken").getAsString();
-                String user = activeSessions.get(token);
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
                 if (user == null) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid session");
+                    resp.success = false;
+                    resp.message = "Invalid session";
                     return resp;
                 }
 
-                String compte = sanitize(req.get("compte").getAsString());
-                String acctUser = sanitize(req.get("account_username").getAsString());
-                String password = req.get("password").getAsString();
-                String notes = sanitize(req.get("notes").getAsString());
-                String encPwd = encrypt(password);
-
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String insert = "INSERT INTO accounts (username, compte, account_username, encrypted_password, notes) VALUES (?, ?, ?, ?, ?)";
-                    try (PreparedStatement ps = conn.prepareStatement(insert)) {
-                        ps.setString(1, user);
-                        ps.setString(2, compte);
-                        ps.setString(3, acctUser);
-                        ps.setString(4, encPwd);
-                        ps.setString(5, notes);
-                        ps.executeUpdate();
-                    }
-                    resp.addProperty("success", true);
-                    resp.addProperty("message", "Account created");
-                    System.out.println("[SERVER] [" + user + "] Created account: " + compte);
+                int id = required(req.id, "id");
+                if (repo.deleteAccount(user, id)) {
+                    resp.success = true;
+                    resp.message = "Account deleted";
+                    LOG.info("[SERVER] [%s] Deleted account ID %s", user, id);
+                } else {
+                    resp.success = false;
+                    resp.message = "Account not found or unauthorized";
                 }
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Create failed: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Delete failed: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleUpdateAccount(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleSearchAccounts(Request req) {
+            Response resp = new Response();
             try {
-                String token = req.get("sessionToken").getAsString();
-                String user = activeSessions.get(token);
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
                 if (user == null) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid session");
+                    resp.success = false;
+                    resp.message = "Invalid session";
                     return resp;
                 }
 
-                int id = req.get("id").getAsInt();
-                String compte = sanitize(req.get("compte").getAsString());
-                String acctUser = sanitize(req.get("account_username").getAsString());
-                String password = req.get("password").getAsString();
-                String notes = sanitize(req.get("notes").getAsString());
-                String encPwd = encrypt(password);
-
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String update = "UPDATE accounts SET compte=?, account_username=?, encrypted_password=?, notes=? WHERE id=? AND username=?";
-                    try (PreparedStatement ps = conn.prepareStatement(update)) {
-                        ps.setString(1, compte);
-                        ps.setString(2, acctUser);
-                        ps.setString(3, encPwd);
-                        ps.setString(4, notes);
-                        ps.setInt(5, id);
-                        ps.setString(6, user);
-                        int rows = ps.executeUpdate();
-                        if (rows > 0) {
-                            resp.addProperty("success", true);
-                            resp.addProperty("message", "Account updated");
-                            System.out.println("[SERVER] [" + user + "] Updated account ID " + id);
-                        } else {
-                            resp.addProperty("success", false);
-                            resp.addProperty("message", "Account not found or unauthorized");
-                        }
-                    }
+                String term = sanitize(required(req.searchTerm, "searchTerm"));
+                int limit = pageLimit(req);
+                int afterId = req.afterId;
+                double afterScore = (req.afterScore != null) ? req.afterScore : -Double.MAX_VALUE;
+                PageQuery query = sink -> repo.searchAccounts(user, term, afterScore, afterId, limit, sink);
+                if (req.stream) {
+                    streamAccounts(req.requestId, query, true);
+                    LOG.debug("[SERVER] [%s] Searched accounts for '%s'", user, term);
+                    return null;
                 }
+                List<AccountSummary> rows = new ArrayList<>();
+                Page page = query.run(rows::add);
+                resp.success = true;
+                resp.accounts = rows;
+                addCursor(resp, page, true);
+                LOG.debug("[SERVER] [%s] Searched accounts for '%s'", user, term);
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Update failed: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Search failed: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleDeleteAccount(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleCreateAccounts(Request req) {
+            Response resp = new Response();
             try {
-                String token = req.get("sessionToken").getAsString();
-                String user = activeSessions.get(token);
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
                 if (user == null) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid session");
+                    resp.success = false;
+                    resp.message = "Invalid session";
                     return resp;
                 }
 
-                int id = req.get("id").getAsInt();
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String del = "DELETE FROM accounts WHERE id=? AND username=?";
-                    try (PreparedStatement ps = conn.prepareStatement(del)) {
-                        ps.setInt(1, id);
-                        ps.setString(2, user);
-                        int rows = ps.executeUpdate();
-                        if (rows > 0) {
-                            resp.addProperty("success", true);
-                            resp.addProperty("message", "Account deleted");
-                            System.out.println("[SERVER] [" + user + "] Deleted account ID " + id);
-                        } else {
-                            resp.addProperty("success", false);
-                            resp.addProperty("message", "Account not found or unauthorized");
-                        }
+                List<AccountInput> items = batch(req.accounts, "accounts");
+                ItemResult[] results = new ItemResult[items.size()];
+                List<NewAccount> rows = new ArrayList<>(items.size());
+                List<Integer> rowIndex = new ArrayList<>(items.size());
+                for (int i = 0; i < items.size(); i++) {
+                    AccountInput in = items.get(i);
+                    try {
+                        rows.add(new NewAccount(
+                                sanitize(required(in.compte(), "compte")),
+                                sanitize(required(in.accountUsername(), "account_username")),
+                                encrypt(required(in.password(), "password")),
+                                sanitize(required(in.notes(), "notes"))));
+                        rowIndex.add(i);
+                    } catch (IllegalArgumentException e) {
+                        results[i] = new ItemResult(i, null, false, e.getMessage(), null);
                     }
                 }
+                int[] ids = repo.insertAccounts(user, rows);
+                for (int k = 0; k < ids.length; k++) {
+                    int i = rowIndex.get(k);
+                    results[i] = new ItemResult(i, ids[k], true, null, null);
+                }
+                resp.success = true;
+                resp.message = "Created " + rows.size() + " of " + items.size() + " accounts";
+                resp.results = List.of(results);
+                LOG.info("[SERVER] [%s] %s", user, resp.message);
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Delete failed: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Create failed: " + e.getMessage();
             }
             return resp;
         }
 
-        private JsonObject handleSearchAccounts(JsonObject req) {
-            JsonObject resp = new JsonObject();
+        private Response handleGetPasswords(Request req) {
+            Response resp = new Response();
             try {
-                String token = req.get("sessionToken").getAsString();
-                String user = activeSessions.get(token);
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
                 if (user == null) {
-                    resp.addProperty("success", false);
-                    resp.addProperty("message", "Invalid session");
+                    resp.success = false;
+                    resp.message = "Invalid session";
                     return resp;
                 }
 
-                String term = sanitize(req.get("searchTerm").getAsString());
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    String q = "SELECT id, compte, account_username, notes FROM accounts WHERE username=? AND (compte LIKE ? OR account_username LIKE ?)";
-                    try (PreparedStatement ps = conn.prepareStatement(q)) {
-                        ps.setString(1, user);
-                        ps.setString(2, "%" + term + "%");
-                        ps.setString(3, "%" + term + "%");
-                        ResultSet rs = ps.executeQuery();
+                List<Integer> ids = batch(req.ids, "ids");
+                Map<Integer, SealedPassword> found = repo.findEncryptedPasswords(user, ids);
+                List<ItemResult> results = new ArrayList<>(ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    int id = ids.get(i);
+                    SealedPassword enc = found.get(id);
+                    results.add(enc != null
+                            ? new ItemResult(i, id, true, null, decrypt(enc))
+                            : new ItemResult(i, id, false, "Account not found", null));
+                }
+                resp.success = true;
+                resp.results = results;
+                LOG.debug("[SERVER] [%s] Retrieved %d passwords", user, found.size());
+            } catch (Exception e) {
+                resp.success = false;
+                resp.message = "Error retrieving passwords: " + e.getMessage();
+            }
+            return resp;
+        }
+
+        private Response handleDeleteAccounts(Request req) {
+            Response resp = new Response();
+            try {
+                String token = required(req.sessionToken, "sessionToken");
+                String user = sessions.userFor(token);
+                if (user == null) {
+                    resp.success = false;
+                    resp.message = "Invalid session";
+                    return resp;
+                }
 
-                        JsonArray arr = new JsonArray();
-                        while (rs.next()) {
-                            JsonObject acct = new JsonObject();
-                            acct.addProperty("id", rs.getInt("id"));
-                            acct.addProperty("compte", rs.getString("compte"));
-                            acct.addProperty("account_username", rs.getString("account_username"));
-                            acct.addProperty("notes", rs.getString("notes"));
-                            arr.add(acct);
-                        }
-                        resp.addProperty("success", true);
-                        resp.add("accounts", arr);
-                        System.out.println("[SERVER] [" + user + "] Searched accounts for '" + term + "'");
-                    }
+                List<Integer> ids = batch(req.ids, "ids");
+                boolean[] deleted = repo.deleteAccounts(user, ids);
+                List<ItemResult> results = new ArrayList<>(ids.size());
+                int count = 0;
+                for (int i = 0; i < ids.size(); i++) {
+                    if (deleted[i]) count++;
+                    results.add(deleted[i]
+                            ? new ItemResult(i, ids.get(i), true, null, null)
+                            : new ItemResult(i, ids.get(i), false, "Account not found or unauthorized", null));
                 }
+                resp.success = true;
+                resp.message = "Deleted " + count + " of " + ids.size() + " accounts";
+                resp.results = results;
+                LOG.info("[SERVER] [%s] %s", user, resp.message);
             } catch (Exception e) {
-                resp.addProperty("success", false);
-                resp.addProperty("message", "Search failed: " + e.getMessage());
+                resp.success = false;
+                resp.message = "Delete failed: " + e.getMessage();
             }
             return resp;
         }
+
+        /** The items of a batch request, or an IllegalArgumentException if missing or too many. */
+        private static <T> List<T> batch(List<T> items, String field) {
+            required(items, field);
+            if (items.size() > MAX_BATCH_SIZE) {
+                throw new IllegalArgumentException("Too many items in " + field + " (max " + MAX_BATCH_SIZE + ")");
+            }
+            return items;
+        }
+
+        /** A paged repository query, run against whichever sink the response mode needs. */
+        private interface PageQuery {
+            Page run(AccountSink sink) throws SQLException, IOException;
+        }
+
+        /** Requested page size, capped at MAX_PAGE_SIZE; 0 (no limit) if the client did not ask. */
+        private static int pageLimit(Request req) {
+            return (req.limit <= 0) ? 0 : Math.min(req.limit, MAX_PAGE_SIZE);
+        }
+
+        private static void addCursor(Response resp, Page page, boolean ranked) {
+            resp.hasMore = page.hasMore();
+            if (page.count() > 0) {
+                resp.nextAfterId = page.lastId();
+                if (ranked) resp.nextAfterScore = page.lastScore();
+            }
+        }
+
+        /**
+         * Write an accounts response straight onto the socket, one row at a time, without
+         * building a JSON tree. "success" comes after the rows so that a database error
+         * part-way through still produces a well-formed reply.
+         */
+        private void streamAccounts(String requestId, PageQuery query, boolean ranked) throws IOException {
+            synchronized (writeLock) {
+                writeStreamed(requestId, query, ranked);
+            }
+            counters.replies.increment();
+        }
+
+        private void writeStreamed(String requestId, PageQuery query, boolean ranked) throws IOException {
+            JsonWriter w = new JsonWriter(out);
+            w.beginObject();
+            if (requestId != null) w.name("requestId").value(requestId);
+            w.name("accounts").beginArray();
+            Page page = null;
+            String error = null;
+            try {
+                page = query.run(a -> ResponseCodec.writeAccount(w, a));
+            } catch (SQLException e) {
+                error = e.getMessage();
+            }
+            w.endArray();
+            if (page != null) {
+                w.name("success").value(true);
+                w.name("hasMore").value(page.hasMore());
+                if (page.count() > 0) {
+                    w.name("nextAfterId").value(page.lastId());
+                    if (ranked) w.name("nextAfterScore").value(page.lastScore());
+                }
+            } else {
+                w.name("success").value(false);
+                w.name("message").value("Error fetching accounts: " + error);
+            }
+            w.endObject();
+            out.write('\n');
+            out.flush();
+        }
+
+    }
+
+    /**
+     * Per-connection request scheduling shared by both transports. Tagged requests are
+     * grouped by session (login/register by username). Within a group requests start in
+     * the order sent and each one waits for everything before it, except that a run of
+     * single-id getPassword reads may run together. So a write, a batch over "ids", a
+     * listing or a logout is a barrier for its session, and no read can overtake an
+     * earlier write. Different groups run in parallel on the worker pool. An untagged
+     * request is a barrier for the whole connection: it starts once everything sent
+     * before it has finished, and nothing sent after it starts until it is answered.
+     */
+    static final class RequestPipeline {
+        private static final int MAX_PENDING = 256;
+
+        /** One ordering group: requests not yet started, and what is running now. */
+        private static final class Group {
+            final ArrayDeque<Request> queued = new ArrayDeque<>();
+            int running;
+            boolean exclusive;   // the running request must finish before anything else starts
+        }
+
+        /** A started request; group is null for an untagged barrier. */
+        private record Task(String key, Group group, Request req) {}
+
+        private final RequestDispatcher dispatcher;
+        private final Executor workers;
+        private final Runnable onFailure;
+        private final Map<String, Group> groups = new HashMap<>();   // guarded by this
+        private final ArrayDeque<Request> held = new ArrayDeque<>(); // behind a barrier; guarded by this
+        private boolean barrierRunning;                               // guarded by this
+        private int pending;                                          // guarded by this
+        private boolean shutdown;                                     // guarded by this
+
+        RequestPipeline(RequestDispatcher dispatcher, Executor workers, Runnable onFailure) {
+            this.dispatcher = dispatcher;
+            this.workers = workers;
+            this.onFailure = onFailure;
+        }
+
+        /** The group a request is ordered within: same session, or same user for login/register. */
+        static String orderingKey(Request req) {
+            if ("login".equals(req.action) || "register".equals(req.action)) return "user:" + req.username;
+            return "session:" + req.sessionToken;
+        }
+
+        /** Requests that may run alongside each other: reads of one account by id. */
+        static boolean isSharedRead(Request req) {
+            return req.requestId != null && req.id != null && "getPassword".equals(req.action);
+        }
+
+        /** Queue a request; false if the connection already has too many outstanding. */
+        synchronized boolean submit(Request req) {
+            if (shutdown || pending >= MAX_PENDING) return false;
+            if (req.requestId == null || barrierRunning || !held.isEmpty()) {
+                if (held.isEmpty() && !barrierRunning && groups.isEmpty()) {
+                    // An untagged request with nothing ahead of it starts straight away
+                    try {
+                        workers.execute(() -> run(new Task(null, null, req)));
+                    } catch (RejectedExecutionException e) {
+                        return false;
+                    }
+                    barrierRunning = true;
+                } else {
+                    held.add(req);
+                }
+                pending++;
+                return true;
+            }
+            String key = orderingKey(req);
+            Group group = groups.computeIfAbsent(key, k -> new Group());
+            group.queued.add(req);
+            pending++;
+            // Only the new request can have become startable, so a rejection is always for it
+            if (!startReady(key, group, null)) {
+                group.queued.removeLast();
+                pending--;
+                if (group.running == 0 && group.queued.isEmpty()) groups.remove(key);
+                notifyAll();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Start whatever the group's head allows (guarded by this). On a worker, mine
+         * collects the requests it will run itself: the first one started, and any the
+         * pool refused. From submit, mine is null and a refusal leaves the request at
+         * the head of the queue and returns false.
+         */
+        private boolean startReady(String key, Group group, ArrayDeque<Task> mine) {
+            while (!group.exclusive && !group.queued.isEmpty()) {
+                Request next = group.queued.peek();
+                boolean shared = isSharedRead(next);
+                if (!shared && group.running > 0) break;
+                group.queued.poll();
+                group.running++;
+                group.exclusive = !shared;
+                Task task = new Task(key, group, next);
+                if (mine != null && mine.isEmpty()) {
+                    mine.add(task);
+                    continue;
+                }
+                try {
+                    workers.execute(() -> run(task));
+                } catch (RejectedExecutionException e) {
+                    if (mine != null) {
+                        mine.add(task);
+                        continue;
+                    }
+                    group.queued.addFirst(next);
+                    group.running--;
+                    group.exclusive = false;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Let held requests in once the barrier ahead of them allows (guarded by this). */
+        private void release(ArrayDeque<Task> mine) {
+            while (!barrierRunning && !held.isEmpty()) {
+                Request next = held.peek();
+                if (next.requestId == null) {
+                    if (!groups.isEmpty()) return;
+                    held.poll();
+                    barrierRunning = true;
+                    mine.add(new Task(null, null, next));
+                    return;
+                }
+                held.poll();
+                String key = orderingKey(next);
+                Group group = groups.computeIfAbsent(key, k -> new Group());
+                group.queued.add(next);
+                startReady(key, group, mine);
+            }
+        }
+
+        /** Runs on a worker: process a request, then keep going with whatever it unblocked. */
+        private void run(Task first) {
+            ArrayDeque<Task> mine = new ArrayDeque<>();
+            mine.add(first);
+            Task task;
+            while ((task = mine.poll()) != null) {
+                try {
+                    dispatcher.processRequest(task.req());
+                } catch (IOException e) {
+                    onFailure.run();
+                }
+                synchronized (this) {
+                    pending--;
+                    Group group = task.group();
+                    if (group == null) {
+                        barrierRunning = false;
+                    } else {
+                        group.running--;
+                        group.exclusive = false;
+                        if (!shutdown) startReady(task.key(), group, mine);
+                        if (group.running == 0 && group.queued.isEmpty()) groups.remove(task.key());
+                    }
+                    if (shutdown) {
+                        mine.clear();
+                    } else {
+                        release(mine);
+                    }
+                    if (shutdown || pending == 0) notifyAll();
+                }
+            }
+        }
+
+        /** Wait for outstanding requests to finish, so their replies go out before closing. */
+        synchronized void awaitIdle(long timeoutMs) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long left;
+            while (pending > 0 && !shutdown && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        /** Drop anything not yet started; the connection is going away. */
+        synchronized void shutdown() {
+            shutdown = true;
+            notifyAll();
+        }
     }
 
     // ─── Utility Methods ──────────────────────────────────────────────────
 
-    private static String generateSalt() {
-        SecureRandom rnd = new SecureRandom();
-        byte[] salt = new byte[16];
-        rnd.nextBytes(salt);
-        return Base64.getEncoder().encodeToString(salt);
+    /**
+     * The server's single source of randomness for salts, session tokens and nonces.
+     *
+     * Generators are created and seeded once at startup, so a login storm never waits on
+     * entropy. There is one DRBG per core, picked by thread id: DRBG instances do not
+     * share state, whereas every NativePRNG shares one lock around /dev/urandom.
+     */
+    static final class TokenService {
+        private static final char[] URL_SAFE =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+        private static final int TOKEN_BYTES = 32;
+        private static final int SALT_BYTES = 16;
+
+        private final SecureRandom[] stripes;
+
+        TokenService(int stripeCount) {
+            stripes = new SecureRandom[Math.max(1, stripeCount)];
+            for (int i = 0; i < stripes.length; i++) {
+                SecureRandom rnd;
+                try {
+                    rnd = SecureRandom.getInstance("DRBG");
+                } catch (NoSuchAlgorithmException e) {
+                    rnd = new SecureRandom();
+                }
+                rnd.nextBytes(new byte[1]);      // force seeding now rather than on first login
+                stripes[i] = rnd;
+            }
+        }
+
+        void nextBytes(byte[] bytes) {
+            stripes[(int) (Thread.currentThread().getId() % stripes.length)].nextBytes(bytes);
+        }
+
+        /** 256-bit session token, URL-safe Base64 without padding (43 chars). */
+        String newSessionToken() {
+            byte[] t = new byte[TOKEN_BYTES];
+            nextBytes(t);
+            return encodeUrlSafe(t);
+        }
+
+        /** 128-bit salt, standard Base64 as stored in the users table. */
+        String newSalt() {
+            byte[] salt = new byte[SALT_BYTES];
+            nextBytes(salt);
+            return Base64.getEncoder().encodeToString(salt);
+        }
+
+        /** Encode straight into the token's char[]; no intermediate byte[] or padding. */
+        static String encodeUrlSafe(byte[] b) {
+            char[] out = new char[(b.length * 4 + 2) / 3];
+            int o = 0;
+            int i = 0;
+            for (; i + 2 < b.length; i += 3) {
+                int v = (b[i] & 0xff) << 16 | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff);
+                out[o++] = URL_SAFE[v >>> 18];
+                out[o++] = URL_SAFE[(v >>> 12) & 63];
+                out[o++] = URL_SAFE[(v >>> 6) & 63];
+                out[o++] = URL_SAFE[v & 63];
+            }
+            int rem = b.length - i;
+            if (rem > 0) {
+                int v = (b[i] & 0xff) << 16 | (rem == 2 ? (b[i + 1] & 0xff) << 8 : 0);
+                out[o++] = URL_SAFE[v >>> 18];
+                out[o++] = URL_SAFE[(v >>> 12) & 63];
+                if (rem == 2) out[o++] = URL_SAFE[(v >>> 6) & 63];
+            }
+            return new String(out);
+        }
+    }
+
+    private static final TokenService tokens = new TokenService(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Password hashing and verification, run on a dedicated bounded pool so that slow
+     * KDF work cannot tie up connection threads, and a login storm is turned away with
+     * "server busy" instead of queueing without limit.
+     *
+     * New hashes use PBKDF2-HMAC-SHA256 with the current iteration count. Each user row
+     * records the algorithm and iterations it was hashed with; {@link #needsUpgrade} tells
+     * the login handler to re-hash rows that are weaker than the current settings.
+     */
+    static final class PasswordHasher {
+        static final String PBKDF2 = "pbkdf2-sha256";
+        static final String LEGACY_SHA256 = "sha256";
+        static final int MIN_ITERATIONS = 100_000;
+        private static final int KEY_BITS = 256;
+        private static final long TIMEOUT_SEC = 30;
+        // Hashed when the user does not exist, so unknown and known users take as long.
+        private static final String DUMMY_SALT = "AAAAAAAAAAAAAAAAAAAAAA==";
+
+        private final ThreadPoolExecutor pool;
+        private final int iterations;
+        private final AtomicLong hashes = new AtomicLong();
+        private final AtomicLong hashNanos = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        PasswordHasher(int threads, int queueSize, int iterations) {
+            this.iterations = iterations;
+            this.pool = newWorkerPool("password-hasher", threads, queueSize);
+        }
+
+        int iterations() {
+            return iterations;
+        }
+
+        /** Hash a new password with a fresh salt and the current parameters. */
+        UserCredentials hash(String password) throws Exception {
+            String salt = tokens.newSalt();
+            String hashed = compute(password, salt, PBKDF2, iterations);
+            return new UserCredentials(hashed, salt, PBKDF2, iterations);
+        }
+
+        /** True if the password matches; false for a null (unknown user) record. */
+        boolean verify(String password, UserCredentials creds) throws Exception {
+            if (creds == null) {
+                compute(password, DUMMY_SALT, PBKDF2, iterations);
+                return false;
+            }
+            String candidate = compute(password, creds.salt(), creds.algorithm(), creds.iterations());
+            return MessageDigest.isEqual(
+                    candidate.getBytes(StandardCharsets.US_ASCII),
+                    creds.passwordHash().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        boolean needsUpgrade(UserCredentials creds) {
+            return !PBKDF2.equals(creds.algorithm()) || creds.iterations() < iterations;
+        }
+
+        /** Run the KDF on the hashing pool and wait for it. */
+        private String compute(String password, String salt, String algorithm, int rounds) throws Exception {
+            Future<String> f;
+            try {
+                f = pool.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        return derive(password, salt, algorithm, rounds);
+                    } finally {
+                        hashes.incrementAndGet();
+                        hashNanos.addAndGet(System.nanoTime() - start);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                throw e;
+            }
+            try {
+                return f.get(TIMEOUT_SEC, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            } catch (TimeoutException | InterruptedException e) {
+                f.cancel(true);
+                throw e;
+            }
+        }
+
+        static String derive(String password, String salt, String algorithm, int rounds)
+                throws GeneralSecurityException {
+            byte[] saltBytes = Base64.getDecoder().decode(salt);
+            switch (algorithm) {
+                case PBKDF2: {
+                    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), saltBytes, rounds, KEY_BITS);
+                    try {
+                        byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+                                .generateSecret(spec).getEncoded();
+                        return Base64.getEncoder().encodeToString(key);
+                    } finally {
+                        spec.clearPassword();
+                    }
+                }
+                case LEGACY_SHA256: {
+                    MessageDigest md = MessageDigest.getInstance("SHA-256");
+                    md.update(saltBytes);
+                    return Base64.getEncoder().encodeToString(md.digest(password.getBytes(StandardCharsets.UTF_8)));
+                }
+                default:
+                    throw new GeneralSecurityException("Unknown password hash algorithm: " + algorithm);
+            }
+        }
+
+        /**
+         * Pick the PBKDF2 iteration count that takes about {@code targetMs} on this machine,
+         * never below MIN_ITERATIONS. Times a few warm runs and scales linearly.
+         */
+        static int calibrate(long targetMs) throws GeneralSecurityException {
+            String salt = DUMMY_SALT;
+            int probe = 20_000;
+            for (int i = 0; i < 3; i++) {
+                derive("calibration", salt, PBKDF2, probe);            // warm-up for the JIT
+            }
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                derive("calibration", salt, PBKDF2, probe);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            long rounds = (long) probe * targetMs * 1_000_000L / Math.max(1, best);
+            return (int) Math.max(MIN_ITERATIONS, Math.min(Integer.MAX_VALUE, rounds));
+        }
+
+        String stats() {
+            long n = hashes.get();
+            return String.format("%d hashes (avg %.1f ms), %d queued, %d rejected, %d iterations",
+                    n, n == 0 ? 0.0 : hashNanos.get() / 1e6 / n, pool.getQueue().size(), rejected.get(), iterations);
+        }
+    }
+
+
+
+    /**
+     * Reusable Cipher instances for one transformation. Cipher.getInstance does a provider
+     * lookup and a Cipher is not thread-safe, so instances are borrowed, re-initialised
+     * for each use, and handed back. A pool (rather than a ThreadLocal) keeps the count
+     * near the number of concurrent requests even when every connection has its own
+     * virtual thread.
+     */
+    static final class CipherPool {
+        private final String transformation;
+        private final ConcurrentLinkedQueue<Cipher> idle = new ConcurrentLinkedQueue<>();
+
+        CipherPool(String transformation) {
+            this.transformation = transformation;
+        }
+
+        Cipher borrow() throws GeneralSecurityException {
+            Cipher c = idle.poll();
+            return (c != null) ? c : Cipher.getInstance(transformation);
+        }
+
+        void release(Cipher c) {
+            idle.offer(c);
+        }
+    }
+
+    private static final int GCM_NONCE_BYTES = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final CipherPool gcmCiphers = new CipherPool("AES/GCM/NoPadding");
+    private static final CipherPool legacyCiphers = new CipherPool("AES");
+
+    /** Seal a password with AES-GCM under a fresh random nonce. */
+    private static SealedPassword encrypt(String plain) throws Exception {
+        byte[] nonce = new byte[GCM_NONCE_BYTES];
+        tokens.nextBytes(nonce);
+        Cipher c = gcmCiphers.borrow();
+        try {
+            c.init(Cipher.ENCRYPT_MODE, serverKey, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+            byte[] enc = c.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+            return new SealedPassword(
+                    Base64.getEncoder().encodeToString(enc),
+                    Base64.getEncoder().encodeToString(nonce));
+        } finally {
+            gcmCiphers.release(c);
+        }
+    }
+
+    /** Open a sealed password; rows without a nonce predate GCM and use the old AES mode. */
+    private static String decrypt(SealedPassword sealed) throws Exception {
+        byte[] data = Base64.getDecoder().decode(sealed.ciphertext());
+        boolean legacy = sealed.nonce() == null;
+        CipherPool pool = legacy ? legacyCiphers : gcmCiphers;
+        Cipher c = pool.borrow();
+        try {
+            if (legacy) {
+                c.init(Cipher.DECRYPT_MODE, serverKey);
+            } else {
+                byte[] nonce = Base64.getDecoder().decode(sealed.nonce());
+                c.init(Cipher.DECRYPT_MODE, serverKey, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+            }
+            return new String(c.doFinal(data), StandardCharsets.UTF_8);
+        } finally {
+            pool.release(c);
+        }
     }
 
-    private static String hash(String password, String salt) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        md.update(Base64.getDecoder().decode(salt));
-        byte[] hashed = md.digest(password.getBytes("UTF-8"));
-        return Base64.getEncoder().encodeToString(hashed);
+    /** The server's log sink, configured from the LOG_* settings; LOG_FILE=none turns the file off. */
+    private static AsyncLogSink newLogSink() {
+        Path file = "none".equalsIgnoreCase(LOG_FILE) ? null : Paths.get(LOG_FILE);
+        AsyncLogSink sink = new AsyncLogSink(LOG_BUFFER, LOG_SCROLLBACK, file,
+                LOG_FILE_MAX_MB * 1024L * 1024L, LOG_FILES_KEPT);
+        try {
+            sink.setThreshold(AsyncLogSink.Level.valueOf(LOG_LEVEL.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            sink.warn("[SERVER] Unknown LOG_LEVEL %s, using %s", LOG_LEVEL, sink.getThreshold());
+        }
+        return sink;
     }
 
-    private static String generateSessionToken() {
-        SecureRandom rnd = new SecureRandom();
-        byte[] t = new byte[32];
-        rnd.nextBytes(t);
-        return Base64.getEncoder().encodeToString(t);
+    /**
+     * A fixed-size pool of named daemon threads with a bounded queue; idle threads exit,
+     * and a full queue makes execute() throw RejectedExecutionException.
+     */
+    private static ThreadPoolExecutor newWorkerPool(String name, int threads, int queueSize) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+                    Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
-    private static String encrypt(String plain) throws Exception {
-        Cipher c = Cipher.getInstance("AES");
-        c.init(Cipher.ENCRYPT_MODE, serverKey);
-        byte[] enc = c.doFinal(plain.getBytes("UTF-8"));
-        return Base64.getEncoder().encodeToString(enc);
+    /** Read a string setting from the environment, falling back to a default. */
+    private static String stringSetting(String name, String def) {
+        String v = System.getenv(name);
+        return (v == null || v.isBlank()) ? def : v.trim();
     }
 
-    private static String decrypt(String cipherText) throws Exception {
-        byte[] data = Base64.getDecoder().decode(cipherText);
-        Cipher c = Cipher.getInstance("AES");
-        c.init(Cipher.DECRYPT_MODE, serverKey);
-        byte[] dec = c.doFinal(data);
-        return new String(dec, "UTF-8");
+    /** Read an integer setting from the environment, falling back to a default. */
+    private static int intSetting(String name, int def) {
+        String v = System.getenv(name);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
     }
 
     private static String sanitize(String s) {